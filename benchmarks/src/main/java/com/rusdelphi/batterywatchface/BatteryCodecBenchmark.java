@@ -0,0 +1,76 @@
+package com.rusdelphi.batterywatchface;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.text.DecimalFormat;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Message payloads exchanged between the watch and the phone.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BatteryCodecBenchmark {
+    final BatteryMessage mMessage = new BatteryMessage();
+    final BatteryMessage mDecoded = new BatteryMessage();
+    final byte[] mBuffer = new byte[BatteryCodec.MAX_SIZE];
+    byte[] mEncoded;
+    byte[] mLegacyEncoded;
+
+    @Setup
+    public void setUp() {
+        mMessage.type = BatteryMessage.TYPE_STATE;
+        mMessage.level = 57;
+        mMessage.scale = 100;
+        mMessage.charging = true;
+        mMessage.plugged = BatteryMessage.PLUGGED_USB;
+        mMessage.temperature = 312;
+        mMessage.voltage = 4123;
+        mMessage.timestamp = 1500000000000L;
+        mEncoded = BatteryCodec.encode(mMessage);
+        mLegacyEncoded = legacyEncode();
+    }
+
+    /**
+     * The "57%" string payload sent with String.getBytes().
+     */
+    @Benchmark
+    public byte[] legacyEncode() {
+        String text = new DecimalFormat("00")
+                .format((((float) mMessage.level / (float) mMessage.scale) * 100.0f)) + "%";
+        return text.getBytes();
+    }
+
+    @Benchmark
+    public String legacyDecode() {
+        return new String(mLegacyEncoded);
+    }
+
+    @Benchmark
+    public int encodeInto() {
+        return BatteryCodec.encode(mMessage, mBuffer, 0);
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return BatteryCodec.encode(mMessage);
+    }
+
+    @Benchmark
+    public boolean decode() {
+        return BatteryCodec.decode(mEncoded, mDecoded);
+    }
+}
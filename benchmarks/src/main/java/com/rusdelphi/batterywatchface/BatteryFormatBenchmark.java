@@ -0,0 +1,47 @@
+package com.rusdelphi.batterywatchface;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.text.DecimalFormat;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Battery percentage text, formatted on every ACTION_BATTERY_CHANGED and every request.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BatteryFormatBenchmark {
+    int mLevel = 57;
+    int mScale = 100;
+    long mRemainingMs = TimeUnit.MINUTES.toMillis(317);
+
+    /**
+     * What the battery receiver and getBatteryLevel used to do.
+     */
+    @Benchmark
+    public String legacyDecimalFormat() {
+        return new DecimalFormat("00").format((((float) mLevel / (float) mScale) * 100.0f)) + "%";
+    }
+
+    @Benchmark
+    public String percent() {
+        return BatteryFormat.percent(BatteryMessage.percent(mLevel, mScale));
+    }
+
+    @Benchmark
+    public String duration() {
+        return BatteryFormat.duration(mRemainingMs);
+    }
+}
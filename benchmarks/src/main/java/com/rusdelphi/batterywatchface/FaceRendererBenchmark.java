@@ -0,0 +1,60 @@
+package com.rusdelphi.batterywatchface;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Layout and text work of one frame against a recording canvas, without any rasterization.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FaceRendererBenchmark {
+    @Param({"true", "false"})
+    boolean mRound;
+
+    FaceRenderer mRenderer;
+    RecordingFaceCanvas mCanvas;
+    int mSecond;
+
+    @Setup
+    public void setUp() {
+        mRenderer = new FaceRenderer(new RenderStats());
+        mRenderer.setSurfaceSize(320, 320);
+        mRenderer.setRound(mRound);
+        mRenderer.setDate("14 Jul", "Fri");
+        mRenderer.setBattery(BatteryState.pack(57, false, 0), BatteryState.pack(83, true, 0), 0);
+        mRenderer.setEstimates("5h", null);
+        mCanvas = new RecordingFaceCanvas();
+    }
+
+    @Benchmark
+    public int interactiveFrame() {
+        mSecond = (mSecond + 1) % 60;
+        mRenderer.setTime(10, 9, mSecond);
+        mCanvas.reset();
+        mRenderer.draw(mCanvas, false, true);
+        return mCanvas.getDrawCalls();
+    }
+
+    @Benchmark
+    public int ambientFrame() {
+        mCanvas.reset();
+        mRenderer.draw(mCanvas, true, false);
+        return mCanvas.getDrawCalls();
+    }
+}
@@ -0,0 +1,287 @@
+package com.rusdelphi.batterywatchface;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drives simulated battery events through {@link WatchBatterySync} and {@link PhoneBatterySync}
+ * connected by a {@link LoopbackNetwork}, and reports message throughput, how long a phone level
+ * change takes to show on the watch and how many sends each event costs.
+ * <p>
+ * Run with {@code ./gradlew :benchmarks:syncLoad}, options go into {@code -PsyncLoad.args} as
+ * {@code key=value} pairs, e.g. {@code -PsyncLoad.args="events=200000 phones=2 loss=0.05"}:
+ * {@code events}, {@code phones}, {@code loss}, {@code minLatency} and {@code maxLatency} in ms,
+ * {@code maxGap} the longest simulated time between two events in ms, and {@code seed}.
+ * The same options give the same simulated run; only the wall clock rates vary.
+ */
+public class SyncLoadTest {
+    private static final long SYNC_COALESCE_WINDOW_MS = TimeUnit.SECONDS.toMillis(2);
+    private static final long SYNC_MIN_INTERVAL_MS = TimeUnit.SECONDS.toMillis(30);
+    private static final long REQUEST_AFTER_MS = TimeUnit.MINUTES.toMillis(30);
+    private static final long REQUEST_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(30);
+    private static final long REPLY_CACHE_MS = TimeUnit.SECONDS.toMillis(5);
+
+    private final LoopbackNetwork mNetwork;
+    private final Random mRandom;
+    private final long mMaxGapMs;
+
+    private final Watch mWatch;
+    private final List<Phone> mPhones = new ArrayList<Phone>();
+
+    private long mEventCount;
+    private long[] mLatencies = new long[1024];
+    private int mLatencyCount;
+
+    SyncLoadTest(long seed, int phones, double loss, long minLatencyMs, long maxLatencyMs,
+            long maxGapMs) {
+        mNetwork = new LoopbackNetwork(seed);
+        mNetwork.setLatency(minLatencyMs, maxLatencyMs);
+        mNetwork.setLossRate(loss);
+        mRandom = new Random(seed + 1);
+        mMaxGapMs = maxGapMs;
+        mWatch = new Watch("watch");
+        for (int i = 0; i < phones; i++) {
+            Phone phone = new Phone("phone-" + i);
+            mPhones.add(phone);
+            // Each phone pairs with the watch, never with the other phones.
+            mNetwork.link(phone.mId, mWatch.mId);
+        }
+    }
+
+    void run(long events) {
+        for (long i = 0; i < events; i++) {
+            mNetwork.runUntil(mNetwork.now() + 1 + (long) (mRandom.nextDouble() * mMaxGapMs));
+            mEventCount++;
+            int device = mRandom.nextInt(mPhones.size() + 1);
+            if (device == 0) {
+                mWatch.onBatteryChanged();
+            } else {
+                mPhones.get(device - 1).onBatteryChanged();
+            }
+        }
+        mNetwork.runUntilIdle();
+    }
+
+    private void recordLatency(long latency) {
+        if (mLatencyCount == mLatencies.length) {
+            mLatencies = Arrays.copyOf(mLatencies, mLatencyCount * 2);
+        }
+        mLatencies[mLatencyCount++] = latency;
+    }
+
+    /**
+     * Sends straight to every node instead of queueing in a {@link SyncConnection}, so what the
+     * harness measures is the sync logic and not the retry queue.
+     */
+    private static Outbox fanout(final BatteryTransport transport) {
+        return new Outbox() {
+            @Override
+            public void offer(int slot, byte[] data) {
+                NodeFanout.sendToAll(transport, data);
+            }
+        };
+    }
+
+    /**
+     * Random walk of one device's battery, with occasional plugging in and out.
+     */
+    private class Battery {
+        int mPercent = 50 + mRandom.nextInt(50);
+        boolean mCharging;
+
+        void step() {
+            if (mRandom.nextInt(50) == 0) {
+                mCharging = !mCharging;
+            } else if (mRandom.nextInt(3) == 0) {
+                mPercent = Math.max(0, Math.min(100, mPercent + (mCharging ? 1 : -1)));
+            }
+        }
+
+        BatteryMessage read(BatteryMessage out) {
+            out.clear();
+            out.level = mPercent;
+            out.scale = 100;
+            out.charging = mCharging;
+            out.timestamp = mNetwork.now();
+            return out;
+        }
+    }
+
+    private class Watch implements BatteryTransport.Receiver {
+        final String mId;
+        final BatteryTransport mTransport;
+        final RequestTracker mRequests = new RequestTracker(REQUEST_TIMEOUT_MS);
+        final BatteryState mState = new BatteryState();
+        final PeerBatteryStates mPeers = new PeerBatteryStates(REQUEST_AFTER_MS);
+        final WatchBatterySync mSync;
+        final Battery mBattery = new Battery();
+        final BatteryMessage mMessage = new BatteryMessage();
+        long mSyncGeneration;
+
+        Watch(String id) {
+            mId = id;
+            mTransport = mNetwork.addNode(id, this);
+            mSync = new WatchBatterySync(fanout(mTransport), mState, mPeers, mRequests,
+                    new BatterySyncScheduler(SYNC_COALESCE_WINDOW_MS, SYNC_MIN_INTERVAL_MS),
+                    REQUEST_AFTER_MS, false);
+        }
+
+        void onBatteryChanged() {
+            mBattery.step();
+            scheduleSync(mSync.onBatteryChanged(mBattery.read(mMessage), mNetwork.now()));
+        }
+
+        /**
+         * Like the face's handler, a new delay replaces the pending one.
+         */
+        void scheduleSync(long delayMs) {
+            final long generation = ++mSyncGeneration;
+            if (delayMs == BatterySyncScheduler.NOTHING_PENDING) {
+                return;
+            }
+            mNetwork.schedule(delayMs, new Runnable() {
+                @Override
+                public void run() {
+                    if (generation == mSyncGeneration) {
+                        scheduleSync(mSync.sync(mNetwork.now(), mNetwork.now()));
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void onMessage(String sourceNodeId, byte[] data) {
+            mSync.onMessage(sourceNodeId, data, mNetwork.now(), mNetwork.now());
+            for (Phone phone : mPhones) {
+                if (phone.mId.equals(sourceNodeId)) {
+                    phone.onShown(BatteryState.percent(mPeers.get(sourceNodeId)));
+                }
+            }
+        }
+    }
+
+    private class Phone implements BatteryTransport.Receiver {
+        final String mId;
+        final BatteryTransport mTransport;
+        final PhoneBatterySync mSync;
+        final Battery mBattery = new Battery();
+        /**
+         * When the watch started being out of date, -1 while it shows the current level.
+         */
+        long mChangedAt = -1;
+        long mShownCount;
+        long mUnshownCount;
+
+        Phone(String id) {
+            mId = id;
+            mTransport = mNetwork.addNode(id, this);
+            mSync = new PhoneBatterySync(new PhoneBatterySync.StateSource() {
+                @Override
+                public BatteryMessage read(BatteryMessage out) {
+                    return mBattery.read(out);
+                }
+            }, fanout(mTransport), new BatteryPushPolicy(2, 1, REQUEST_AFTER_MS), REPLY_CACHE_MS);
+        }
+
+        void onBatteryChanged() {
+            int before = mBattery.mPercent;
+            mBattery.step();
+            if (mBattery.mPercent != before && mChangedAt < 0) {
+                mChangedAt = mNetwork.now();
+            } else if (mBattery.mPercent != before) {
+                mUnshownCount++;
+            }
+            mSync.onBatteryChanged(mNetwork.now());
+        }
+
+        void onShown(int percent) {
+            if (mChangedAt >= 0 && percent == mBattery.mPercent) {
+                recordLatency(mNetwork.now() - mChangedAt);
+                mChangedAt = -1;
+                mShownCount++;
+            }
+        }
+
+        @Override
+        public void onMessage(String sourceNodeId, byte[] data) {
+            mSync.onMessage(data, mNetwork.now());
+        }
+    }
+
+    void report(long wallNanos) {
+        double seconds = wallNanos / 1e9;
+        long shown = 0;
+        long unshown = 0;
+        for (Phone phone : mPhones) {
+            shown += phone.mShownCount;
+            unshown += phone.mUnshownCount + (phone.mChangedAt >= 0 ? 1 : 0);
+        }
+        Arrays.sort(mLatencies, 0, mLatencyCount);
+        System.out.println(mNetwork);
+        System.out.println(String.format("events %d, simulated %.1f h, wall %.2f s",
+                mEventCount, mNetwork.now() / 3600000.0, seconds));
+        System.out.println(String.format("messages/s %.0f, events/s %.0f",
+                mNetwork.getDeliveredCount() / seconds, mEventCount / seconds));
+        System.out.println(String.format("sends/event %.3f", mNetwork.getSentCount()
+                / (double) Math.max(1, mEventCount)));
+        System.out.println(String.format("phone change to watch, ms: p50 %d, p90 %d, p99 %d, max %d"
+                        + " (%d shown, %d superseded or never shown)",
+                percentile(50), percentile(90), percentile(99), percentile(100), shown, unshown));
+        System.out.println(mWatch.mSync.getScheduler());
+        System.out.println(mWatch.mRequests);
+        System.out.println(mWatch.mPeers);
+        for (Phone phone : mPhones) {
+            System.out.println(phone.mId + " " + phone.mSync);
+        }
+    }
+
+    private long percentile(int percentile) {
+        if (mLatencyCount == 0) {
+            return -1;
+        }
+        int index = (int) Math.ceil(percentile / 100.0 * mLatencyCount) - 1;
+        return mLatencies[Math.max(0, Math.min(mLatencyCount - 1, index))];
+    }
+
+    public static void main(String[] args) {
+        long events = 100000;
+        int phones = 1;
+        double loss = 0.01;
+        long minLatency = 20;
+        long maxLatency = 300;
+        long maxGap = TimeUnit.SECONDS.toMillis(60);
+        long seed = 1;
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq < 0) {
+                throw new IllegalArgumentException("expected key=value: " + arg);
+            }
+            String key = arg.substring(0, eq);
+            String value = arg.substring(eq + 1);
+            if ("events".equals(key)) {
+                events = Long.parseLong(value);
+            } else if ("phones".equals(key)) {
+                phones = Integer.parseInt(value);
+            } else if ("loss".equals(key)) {
+                loss = Double.parseDouble(value);
+            } else if ("minLatency".equals(key)) {
+                minLatency = Long.parseLong(value);
+            } else if ("maxLatency".equals(key)) {
+                maxLatency = Long.parseLong(value);
+            } else if ("maxGap".equals(key)) {
+                maxGap = Long.parseLong(value);
+            } else if ("seed".equals(key)) {
+                seed = Long.parseLong(value);
+            } else {
+                throw new IllegalArgumentException("unknown option: " + key);
+            }
+        }
+        SyncLoadTest test = new SyncLoadTest(seed, phones, loss, minLatency, maxLatency, maxGap);
+        long start = System.nanoTime();
+        test.run(events);
+        test.report(System.nanoTime() - start);
+    }
+}
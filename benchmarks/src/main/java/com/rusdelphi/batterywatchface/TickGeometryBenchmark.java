@@ -0,0 +1,61 @@
+package com.rusdelphi.batterywatchface;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Second tick endpoints. The dial layer computes them once per surface size, they used to be
+ * computed tick by tick on every frame.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TickGeometryBenchmark {
+    int mWidth = 320;
+    int mHeight = 320;
+    final float[] mPoints = new float[TickGeometry.POINTS_SIZE];
+
+    /**
+     * The round face's per-frame loop, four trigonometric calls per tick.
+     */
+    @Benchmark
+    public void legacyRoundTicks(Blackhole bh) {
+        float centerX = mWidth / 2f;
+        float centerY = mHeight / 2f;
+        float innerTickRadius = centerX - 20;
+        float outerTickRadius = centerX;
+        for (int tickIndex = 1; tickIndex < 60; tickIndex++) {
+            float tickRot = (float) (tickIndex * Math.PI * 2 / 60);
+            float innerX = (float) Math.sin(tickRot) * innerTickRadius;
+            float innerY = (float) -Math.cos(tickRot) * innerTickRadius;
+            float outerX = (float) Math.sin(tickRot) * outerTickRadius;
+            float outerY = (float) -Math.cos(tickRot) * outerTickRadius;
+            bh.consume(centerX + innerX + centerY + innerY + centerX + outerX + centerY + outerY);
+        }
+    }
+
+    @Benchmark
+    public float[] fillRound() {
+        TickGeometry.fillRound(mPoints, mWidth, mHeight, 20);
+        return mPoints;
+    }
+
+    @Benchmark
+    public float[] fillSquare() {
+        TickGeometry.fillSquare(mPoints, mWidth, mHeight, 10);
+        return mPoints;
+    }
+}
@@ -0,0 +1,132 @@
+package com.rusdelphi.batterywatchface;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time and date text drawn every interactive frame. android.text.format.Time is not available on
+ * the JVM, SimpleDateFormat stands in for the "%b" and "%a" patterns.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TimeTextBenchmark {
+    int mHour = 9;
+    int mMinute = 7;
+    final char[] mTimeChars = new char[5];
+    Date mDate;
+    SimpleDateFormat mDayFormat;
+    SimpleDateFormat mMonthFormat;
+    SimpleDateFormat mWeekdayFormat;
+
+    ClockModel mClock;
+    /**
+     * 09:07:00 and 23:59:30 on the same day.
+     */
+    long mMinuteStart;
+    long mDayEnd;
+    int mTick;
+
+    @Setup
+    public void setUp() {
+        TimeZone timeZone = TimeZone.getTimeZone("Europe/Berlin");
+        Calendar calendar = Calendar.getInstance(timeZone, Locale.US);
+        calendar.clear();
+        calendar.set(2017, Calendar.JULY, 14, mHour, mMinute, 0);
+        mMinuteStart = calendar.getTimeInMillis();
+        calendar.set(2017, Calendar.JULY, 14, 23, 59, 30);
+        mDayEnd = calendar.getTimeInMillis();
+        mClock = new ClockModel(timeZone, Locale.US);
+
+        mDate = new Date(mMinuteStart);
+        mDayFormat = new SimpleDateFormat("dd", Locale.US);
+        mMonthFormat = new SimpleDateFormat("MMM", Locale.US);
+        mWeekdayFormat = new SimpleDateFormat("EEE", Locale.US);
+        mDayFormat.setTimeZone(timeZone);
+        mMonthFormat.setTimeZone(timeZone);
+        mWeekdayFormat.setTimeZone(timeZone);
+    }
+
+    /**
+     * The square layout's hour and minute digits before they were precomputed.
+     */
+    @Benchmark
+    public void legacySquareDigits(Blackhole bh) {
+        bh.consume(String.format("%02d", mHour));
+        bh.consume(String.format("%02d", mMinute));
+    }
+
+    @Benchmark
+    public void squareDigits(Blackhole bh) {
+        bh.consume(FaceRenderer.twoDigits(mHour));
+        bh.consume(FaceRenderer.twoDigits(mMinute));
+    }
+
+    /**
+     * The round layout's "H:MM" before it was written into a reused char array.
+     */
+    @Benchmark
+    public String legacyRoundTime() {
+        return String.format("%d:%02d", mHour, mMinute);
+    }
+
+    @Benchmark
+    public int roundTime() {
+        return FaceRenderer.fillTimeChars(mTimeChars, mHour, mMinute);
+    }
+
+    /**
+     * Date and weekday formatted every frame, as onDraw used to.
+     */
+    @Benchmark
+    public void legacyDateText(Blackhole bh) {
+        bh.consume(mDayFormat.format(mDate) + " " + mMonthFormat.format(mDate));
+        bh.consume(mWeekdayFormat.format(mDate));
+    }
+
+    /**
+     * Most frames: a new second of the same minute.
+     */
+    @Benchmark
+    public boolean clockSameMinute() {
+        mTick = (mTick + 1) & 31;
+        return mClock.update(mMinuteStart + mTick * 1000L);
+    }
+
+    /**
+     * Once a minute: the calendar is read, the date texts are kept.
+     */
+    @Benchmark
+    public boolean clockNextMinute() {
+        mTick ^= 1;
+        return mClock.update(mMinuteStart + mTick * TimeUnit.MINUTES.toMillis(1));
+    }
+
+    /**
+     * Once a day: the date texts are formatted again. Every call crosses midnight.
+     */
+    @Benchmark
+    public boolean clockNextDay() {
+        mTick ^= 1;
+        return mClock.update(mDayEnd + mTick * TimeUnit.MINUTES.toMillis(1));
+    }
+}
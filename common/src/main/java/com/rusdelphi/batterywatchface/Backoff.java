@@ -0,0 +1,50 @@
+package com.rusdelphi.batterywatchface;
+
+import java.util.Random;
+
+/**
+ * Exponential backoff with jitter: each delay is drawn from the upper half of a window that
+ * doubles from {@code initialMs} up to {@code maxMs}, so retries of several clients spread out.
+ * Not thread-safe.
+ */
+public class Backoff {
+    private final long mInitialMs;
+    private final long mMaxMs;
+    private final Random mRandom;
+    private int mAttempts;
+
+    public Backoff(long initialMs, long maxMs) {
+        this(initialMs, maxMs, new Random());
+    }
+
+    public Backoff(long initialMs, long maxMs, Random random) {
+        mInitialMs = Math.max(1, initialMs);
+        mMaxMs = Math.max(mInitialMs, maxMs);
+        mRandom = random;
+    }
+
+    /**
+     * Returns the delay before the next attempt and widens the window for the one after.
+     */
+    public long nextDelayMs() {
+        long window = mInitialMs;
+        for (int i = 0; i < mAttempts && window < mMaxMs; i++) {
+            window *= 2;
+        }
+        window = Math.min(window, mMaxMs);
+        mAttempts++;
+        long half = window / 2;
+        return half + (long) (mRandom.nextDouble() * (window - half));
+    }
+
+    public void reset() {
+        mAttempts = 0;
+    }
+
+    /**
+     * Delays handed out since the last {@link #reset}.
+     */
+    public int getAttempts() {
+        return mAttempts;
+    }
+}
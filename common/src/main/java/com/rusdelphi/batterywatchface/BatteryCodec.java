@@ -0,0 +1,146 @@
+package com.rusdelphi.batterywatchface;
+
+/**
+ * Fixed-layout binary encoding of {@link BatteryMessage}. Neither method allocates.
+ * <p>
+ * Version 2 layout, big-endian:
+ * <pre>
+ * 0      version
+ * 1      type
+ * 2      level (unsigned)
+ * 3      scale (unsigned)
+ * 4      flags: bit 0 charging, bits 1-3 plug type
+ * 5-6    temperature, tenths of a degree Celsius (signed)
+ * 7-8    voltage, millivolts (unsigned)
+ * 9-12   timestamp, seconds since the epoch (unsigned)
+ * 13-14  id of the request answered, 0 for none (unsigned, since version 2)
+ * </pre>
+ * Level and scale are sent as they are when the scale fits a byte. A device with a finer scale
+ * sends the percentage as level and 100 as scale instead, so every decoder gets the right
+ * percentage.
+ * <p>
+ * A request carries the first two bytes followed by its id (unsigned, since version 2). Later
+ * versions may append fields but must not move the existing ones, so an older decoder can read
+ * any newer message; fields missing from an older message decode as 0.
+ */
+public final class BatteryCodec {
+    public static final int VERSION = 2;
+    public static final int REQUEST_SIZE = 4;
+    public static final int STATE_SIZE = 15;
+    public static final int MAX_SIZE = STATE_SIZE;
+
+    /**
+     * Oldest version still read, and its message sizes: version 1 had no request ids.
+     */
+    private static final int MIN_VERSION = 1;
+    private static final int V1_REQUEST_SIZE = 2;
+    private static final int V1_STATE_SIZE = 13;
+
+    private static final int FLAG_CHARGING = 1;
+
+    private BatteryCodec() {
+    }
+
+    /**
+     * Writes {@code message} to {@code out} starting at {@code offset} and returns the number of
+     * bytes written.
+     */
+    public static int encode(BatteryMessage message, byte[] out, int offset) {
+        out[offset] = VERSION;
+        out[offset + 1] = (byte) message.type;
+        if (message.type == BatteryMessage.TYPE_REQUEST) {
+            putShort(out, offset + 2, message.requestId);
+            return REQUEST_SIZE;
+        }
+        int level = message.level;
+        int scale = message.scale;
+        if (scale > 0xff) {
+            level = BatteryMessage.percent(level, scale);
+            scale = level < 0 ? 0 : 100;
+        }
+        out[offset + 2] = (byte) clamp(level, 0, 0xff);
+        out[offset + 3] = (byte) clamp(scale, 0, 0xff);
+        out[offset + 4] = (byte) ((message.charging ? FLAG_CHARGING : 0) | ((message.plugged & 0x7) << 1));
+        putShort(out, offset + 5, clamp(message.temperature, Short.MIN_VALUE, Short.MAX_VALUE));
+        putShort(out, offset + 7, clamp(message.voltage, 0, 0xffff));
+        putInt(out, offset + 9, (int) (message.timestamp / 1000));
+        putShort(out, offset + 13, message.requestId);
+        return STATE_SIZE;
+    }
+
+    /**
+     * Convenience for callers that hand the bytes off, e.g. to the message API.
+     */
+    public static byte[] encode(BatteryMessage message) {
+        byte[] out = new byte[message.type == BatteryMessage.TYPE_REQUEST ? REQUEST_SIZE : STATE_SIZE];
+        encode(message, out, 0);
+        return out;
+    }
+
+    /**
+     * Reads a message from {@code in} into {@code out}. Returns false, leaving {@code out}
+     * unspecified, if the data is truncated or not in this format.
+     */
+    public static boolean decode(byte[] in, int offset, int length, BatteryMessage out) {
+        if (in == null || length < V1_REQUEST_SIZE || in[offset] < MIN_VERSION) {
+            return false;
+        }
+        out.type = in[offset + 1];
+        if (out.type == BatteryMessage.TYPE_REQUEST) {
+            out.requestId = length >= REQUEST_SIZE ? getShort(in, offset + 2) : 0;
+            return true;
+        }
+        if (out.type != BatteryMessage.TYPE_STATE || length < V1_STATE_SIZE) {
+            return false;
+        }
+        out.level = in[offset + 2] & 0xff;
+        out.scale = in[offset + 3] & 0xff;
+        int flags = in[offset + 4];
+        out.charging = (flags & FLAG_CHARGING) != 0;
+        out.plugged = (flags >> 1) & 0x7;
+        out.temperature = (short) getShort(in, offset + 5);
+        out.voltage = getShort(in, offset + 7);
+        out.timestamp = (getInt(in, offset + 9) & 0xffffffffL) * 1000;
+        out.requestId = length >= STATE_SIZE ? getShort(in, offset + 13) : 0;
+        return true;
+    }
+
+    public static boolean decode(byte[] in, BatteryMessage out) {
+        return in != null && decode(in, 0, in.length, out);
+    }
+
+    /**
+     * Returns the message type of encoded data without decoding it, or -1 if it isn't valid.
+     */
+    public static int peekType(byte[] in) {
+        if (in == null || in.length < V1_REQUEST_SIZE || in[0] < MIN_VERSION) {
+            return -1;
+        }
+        return in[1];
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return value < min ? min : value > max ? max : value;
+    }
+
+    private static void putShort(byte[] out, int offset, int value) {
+        out[offset] = (byte) (value >> 8);
+        out[offset + 1] = (byte) value;
+    }
+
+    private static void putInt(byte[] out, int offset, int value) {
+        out[offset] = (byte) (value >> 24);
+        out[offset + 1] = (byte) (value >> 16);
+        out[offset + 2] = (byte) (value >> 8);
+        out[offset + 3] = (byte) value;
+    }
+
+    private static int getShort(byte[] in, int offset) {
+        return ((in[offset] & 0xff) << 8) | (in[offset + 1] & 0xff);
+    }
+
+    private static int getInt(byte[] in, int offset) {
+        return ((in[offset] & 0xff) << 24) | ((in[offset + 1] & 0xff) << 16)
+                | ((in[offset + 2] & 0xff) << 8) | (in[offset + 3] & 0xff);
+    }
+}
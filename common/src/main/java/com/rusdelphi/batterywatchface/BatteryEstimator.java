@@ -0,0 +1,97 @@
+package com.rusdelphi.batterywatchface;
+
+/**
+ * Streaming estimate of the time until the battery is empty (discharging) or full (charging).
+ * Keeps an exponentially weighted average of the rate between successive samples, so each
+ * sample and each query is O(1) and nothing is rescanned.
+ * <p>
+ * The rate is reset whenever the charging state flips. The sample that starts a new state comes
+ * at an arbitrary point within a percent, so the interval up to the first percent change after it
+ * is partial and is not averaged; rates are taken from the next change on. Not thread-safe, use
+ * it from one thread.
+ */
+public class BatteryEstimator {
+    public static final long UNKNOWN = -1;
+
+    /**
+     * Weight of the newest rate in the average.
+     */
+    private static final double ALPHA = 0.3;
+
+    /**
+     * Number of rates to average before an estimate is reported.
+     */
+    private static final int MIN_RATES = 2;
+
+    private long mLastTimestamp;
+    private int mLastPercent = -1;
+    private boolean mCharging;
+    /**
+     * Whether the last sample was a percent change, so the next interval is a full percent.
+     */
+    private boolean mAligned;
+    /**
+     * Percent per millisecond, positive while charging and negative while discharging.
+     */
+    private double mRate;
+    private int mRateCount;
+
+    public void reset() {
+        mLastPercent = -1;
+        mAligned = false;
+        mRateCount = 0;
+        mRate = 0;
+    }
+
+    public void add(long timestamp, int percent, boolean charging) {
+        if (percent < 0) {
+            return;
+        }
+        if (mLastPercent < 0 || charging != mCharging || timestamp < mLastTimestamp) {
+            reset();
+            mCharging = charging;
+            mLastPercent = percent;
+            mLastTimestamp = timestamp;
+            return;
+        }
+        long dt = timestamp - mLastTimestamp;
+        int dp = percent - mLastPercent;
+        if (dt <= 0 || dp == 0) {
+            // Nothing to learn yet, keep measuring from the previous change.
+            return;
+        }
+        if (mAligned) {
+            double rate = (double) dp / dt;
+            mRate = mRateCount == 0 ? rate : mRate + ALPHA * (rate - mRate);
+            mRateCount++;
+        }
+        mAligned = true;
+        mLastPercent = percent;
+        mLastTimestamp = timestamp;
+    }
+
+    public boolean isCharging() {
+        return mCharging;
+    }
+
+    /**
+     * Milliseconds until empty, or until full while charging, as of {@code now}; {@link #UNKNOWN}
+     * if there isn't enough data or the level moves the wrong way.
+     */
+    public long estimateMillis(long now) {
+        if (mRateCount < MIN_RATES) {
+            return UNKNOWN;
+        }
+        double rate = mCharging ? mRate : -mRate;
+        if (rate <= 0) {
+            return UNKNOWN;
+        }
+        long elapsed = Math.max(0, now - mLastTimestamp);
+        // If the next percent is overdue, the rate has dropped to at most 1% per elapsed time.
+        if (elapsed > 0) {
+            rate = Math.min(rate, 1.0 / elapsed);
+        }
+        int remaining = mCharging ? 100 - mLastPercent : mLastPercent;
+        return Math.max(0, (long) (remaining / rate) - elapsed);
+    }
+}
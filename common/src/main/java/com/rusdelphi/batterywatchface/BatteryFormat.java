@@ -0,0 +1,61 @@
+package com.rusdelphi.batterywatchface;
+
+/**
+ * Text for battery levels, precomputed so that formatting a level never allocates.
+ */
+public final class BatteryFormat {
+    public static final String UNKNOWN = "?";
+
+    private static final String[] PERCENT = new String[101];
+    private static final String[] OTHER_PERCENT = new String[101];
+    private static final String[] MINUTES = new String[60];
+    private static final String[] HOURS = new String[100];
+    private static final String MANY_HOURS = "99h+";
+    private static final long MINUTE_MS = 60 * 1000;
+    private static final long HOUR_MS = 60 * MINUTE_MS;
+
+    static {
+        for (int i = 0; i <= 100; i++) {
+            PERCENT[i] = (i < 10 ? "0" + i : String.valueOf(i)) + "%";
+            OTHER_PERCENT[i] = "+" + PERCENT[i];
+        }
+        for (int i = 0; i < MINUTES.length; i++) {
+            MINUTES[i] = i + "m";
+        }
+        for (int i = 0; i < HOURS.length; i++) {
+            HOURS[i] = i + "h";
+        }
+    }
+
+    private BatteryFormat() {
+    }
+
+    /**
+     * "05%", "57%", "100%", or {@link #UNKNOWN} for values outside 0..100.
+     */
+    public static String percent(int percent) {
+        return percent < 0 || percent > 100 ? UNKNOWN : PERCENT[percent];
+    }
+
+    /**
+     * Level of an additional device: "+57%", or null for values outside 0..100.
+     */
+    public static String otherPercent(int percent) {
+        return percent < 0 || percent > 100 ? null : OTHER_PERCENT[percent];
+    }
+
+    /**
+     * Short text for a remaining time: "45m" below an hour, "5h" up to 99 hours, then "99h+".
+     * Returns null for negative values, which mean unknown.
+     */
+    public static String duration(long millis) {
+        if (millis < 0) {
+            return null;
+        }
+        if (millis < HOUR_MS) {
+            return MINUTES[(int) (millis / MINUTE_MS)];
+        }
+        long hours = millis / HOUR_MS;
+        return hours < HOURS.length ? HOURS[(int) hours] : MANY_HOURS;
+    }
+}
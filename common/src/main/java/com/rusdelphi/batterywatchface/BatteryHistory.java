@@ -0,0 +1,190 @@
+package com.rusdelphi.batterywatchface;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Fixed-capacity ring buffer of (timestamp, percent, charging) samples, each packed into a long
+ * as a {@link BatteryState} value. When opened on a file, every append is also written through a
+ * memory-mapped copy so the history survives process death and reloads with one sequential read.
+ * <p>
+ * File layout: a 16-byte header (magic, capacity, total number of appends) followed by
+ * {@code capacity + 1} 8-byte records. The spare record is where the next append goes, so a
+ * record is never visible while it is written; it becomes visible, and the oldest one goes, with
+ * the aligned 8-byte write of the append count. The record and then the count are forced to
+ * storage, so after a crash the file holds the history either before or after the append.
+ * <p>
+ * Index 0 is the oldest retained sample. Not thread-safe, use it from one thread.
+ */
+public class BatteryHistory implements Closeable {
+    private static final int MAGIC = 0x42574832; // "BWH2"
+    static final int HEADER_SIZE = 16;
+    static final int COUNT_OFFSET = 8;
+    static final int RECORD_SIZE = 8;
+
+    private final int mCapacity;
+    private final int mSlots;
+    private final long[] mRecords;
+    private long mCount;
+
+    private RandomAccessFile mFile;
+    private MappedByteBuffer mMap;
+    private boolean mForce;
+
+    public BatteryHistory(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        mCapacity = capacity;
+        mSlots = capacity + 1;
+        mRecords = new long[mSlots];
+    }
+
+    /**
+     * Opens the history stored in {@code file}, creating it if needed. A file written with a
+     * different capacity, or not by this class, is started over.
+     */
+    public static BatteryHistory open(File file, int capacity) throws IOException {
+        return open(file, capacity, true);
+    }
+
+    /**
+     * As {@link #open(File, int)}; without {@code force} appends are not forced to storage and
+     * only survive the process, not the device, crashing. For filling large test files.
+     */
+    static BatteryHistory open(File file, int capacity, boolean force) throws IOException {
+        BatteryHistory history = new BatteryHistory(capacity);
+        history.mForce = force;
+        history.map(file);
+        return history;
+    }
+
+    private void map(File file) throws IOException {
+        long size = HEADER_SIZE + (long) mSlots * RECORD_SIZE;
+        mFile = new RandomAccessFile(file, "rw");
+        try {
+            boolean existing = mFile.length() == size;
+            if (!existing) {
+                mFile.setLength(size);
+            }
+            mMap = mFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            if (existing && mMap.getInt(0) == MAGIC && mMap.getInt(4) == mCapacity) {
+                load();
+            } else {
+                mMap.putLong(COUNT_OFFSET, 0);
+                mMap.putInt(4, mCapacity);
+                mMap.putInt(0, MAGIC);
+                force();
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    private void load() {
+        long count = mMap.getLong(COUNT_OFFSET);
+        if (count < 0) {
+            count = 0;
+        }
+        mCount = count;
+        int size = size();
+        for (int i = 0; i < size; i++) {
+            int slot = slot(i);
+            mRecords[slot] = mMap.getLong(HEADER_SIZE + slot * RECORD_SIZE);
+        }
+    }
+
+    private void force() {
+        if (mForce) {
+            mMap.force();
+        }
+    }
+
+    /**
+     * Appends a sample with a percentage from 0 to 100, dropping the oldest one if full.
+     */
+    public void append(long timestamp, int percent, boolean charging) {
+        int slot = (int) (mCount % mSlots);
+        long record = BatteryState.pack(percent, charging, timestamp);
+        mRecords[slot] = record;
+        if (mMap != null) {
+            mMap.putLong(HEADER_SIZE + slot * RECORD_SIZE, record);
+            force();
+            mMap.putLong(COUNT_OFFSET, mCount + 1);
+            force();
+        }
+        mCount++;
+    }
+
+    /**
+     * Appends only if the percentage or charging state differs from the latest sample. Returns
+     * whether a sample was appended.
+     */
+    public boolean appendIfChanged(long timestamp, int percent, boolean charging) {
+        if (percent < 0) {
+            return false;
+        }
+        if (mCount > 0) {
+            int last = size() - 1;
+            if (getPercent(last) == percent && isCharging(last) == charging) {
+                return false;
+            }
+        }
+        append(timestamp, percent, charging);
+        return true;
+    }
+
+    public int capacity() {
+        return mCapacity;
+    }
+
+    /**
+     * Number of retained samples, at most {@link #capacity()}.
+     */
+    public int size() {
+        return (int) Math.min(mCount, mCapacity);
+    }
+
+    public boolean isEmpty() {
+        return mCount == 0;
+    }
+
+    public long getTimestamp(int index) {
+        return BatteryState.timestamp(mRecords[slot(index)]);
+    }
+
+    public int getPercent(int index) {
+        return BatteryState.percent(mRecords[slot(index)]);
+    }
+
+    public boolean isCharging(int index) {
+        return BatteryState.isCharging(mRecords[slot(index)]);
+    }
+
+    /**
+     * Percent of the latest sample, or -1 if there is none.
+     */
+    public int getLatestPercent() {
+        return mCount == 0 ? -1 : getPercent(size() - 1);
+    }
+
+    private int slot(int index) {
+        long oldest = mCount > mCapacity ? mCount - mCapacity : 0;
+        return (int) ((oldest + index) % mSlots);
+    }
+
+    @Override
+    public void close() throws IOException {
+        mMap = null;
+        if (mFile != null) {
+            RandomAccessFile file = mFile;
+            mFile = null;
+            file.close();
+        }
+    }
+}
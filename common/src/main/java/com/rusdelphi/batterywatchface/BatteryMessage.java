@@ -0,0 +1,81 @@
+package com.rusdelphi.batterywatchface;
+
+/**
+ * Battery state exchanged between the phone and the watch. Mutable so that one instance can be
+ * reused for every message, see {@link BatteryCodec}.
+ */
+public class BatteryMessage {
+    public static final int TYPE_STATE = 1;
+    public static final int TYPE_REQUEST = 2;
+
+    /**
+     * Same values as BatteryManager.BATTERY_PLUGGED_*.
+     */
+    public static final int PLUGGED_NONE = 0;
+    public static final int PLUGGED_AC = 1;
+    public static final int PLUGGED_USB = 2;
+    public static final int PLUGGED_WIRELESS = 4;
+
+    public int type = TYPE_STATE;
+    public int level = -1;
+    public int scale = -1;
+    public boolean charging;
+    public int plugged = PLUGGED_NONE;
+    /**
+     * Tenths of a degree Celsius.
+     */
+    public int temperature;
+    /**
+     * Millivolts.
+     */
+    public int voltage;
+    /**
+     * Milliseconds since the epoch, sent with a precision of one second.
+     */
+    public long timestamp;
+    /**
+     * Id of a request, or for a state the id of the request it answers. 0 for none, e.g. a state
+     * pushed without being asked.
+     */
+    public int requestId;
+
+    /**
+     * Level in percent from 0 to 100, or -1 if unknown.
+     */
+    public int percent() {
+        return percent(level, scale);
+    }
+
+    public static int percent(int level, int scale) {
+        if (level < 0 || scale <= 0) {
+            return -1;
+        }
+        return Math.round(level * 100f / scale);
+    }
+
+    public BatteryMessage set(BatteryMessage other) {
+        type = other.type;
+        level = other.level;
+        scale = other.scale;
+        charging = other.charging;
+        plugged = other.plugged;
+        temperature = other.temperature;
+        voltage = other.voltage;
+        timestamp = other.timestamp;
+        requestId = other.requestId;
+        return this;
+    }
+
+    public BatteryMessage clear() {
+        type = TYPE_STATE;
+        level = -1;
+        scale = -1;
+        charging = false;
+        plugged = PLUGGED_NONE;
+        temperature = 0;
+        voltage = 0;
+        timestamp = 0;
+        requestId = 0;
+        return this;
+    }
+}
@@ -0,0 +1,107 @@
+package com.rusdelphi.batterywatchface;
+
+/**
+ * Decides when the phone pushes its battery state to the watch without being asked: when the
+ * charging state flips, when the level moved {@code deltaPercent} away from what was last pushed,
+ * or when the last push is older than {@code maxStaleMs}.
+ * <p>
+ * A move against the direction of the previous one needs {@code hysteresisPercent} more, so a
+ * level bouncing around the last pushed value (e.g. right after unplugging) doesn't cause a push
+ * each way. The state is plain values so it can be saved between process starts, see
+ * {@link #restore}. Thread-safe, one policy can serve every path that sends the state.
+ */
+public class BatteryPushPolicy {
+    private final int mDeltaPercent;
+    private final int mHysteresisPercent;
+    private final long mMaxStaleMs;
+
+    private int mPushedPercent = -1;
+    private boolean mPushedCharging;
+    private int mDirection;
+    private long mPushedTime;
+
+    public BatteryPushPolicy(int deltaPercent, int hysteresisPercent, long maxStaleMs) {
+        mDeltaPercent = Math.max(1, deltaPercent);
+        mHysteresisPercent = Math.max(0, hysteresisPercent);
+        mMaxStaleMs = maxStaleMs;
+    }
+
+    /**
+     * Whether a state read at {@code now} should be pushed. Call {@link #pushed} once it was sent.
+     */
+    public synchronized boolean shouldPush(int percent, boolean charging, long now) {
+        if (percent < 0) {
+            return false;
+        }
+        if (mPushedPercent < 0 || charging != mPushedCharging) {
+            return true;
+        }
+        // A clock that went backwards makes the age meaningless, push to be safe.
+        if (now < mPushedTime || now - mPushedTime >= mMaxStaleMs) {
+            return true;
+        }
+        int diff = percent - mPushedPercent;
+        if (diff == 0) {
+            return false;
+        }
+        int threshold = mDeltaPercent;
+        if (mDirection != 0 && Integer.signum(diff) != mDirection) {
+            threshold += mHysteresisPercent;
+        }
+        return Math.abs(diff) >= threshold;
+    }
+
+    /**
+     * Records that the watch now has this state, whether it was pushed or sent on request.
+     */
+    public synchronized void pushed(int percent, boolean charging, long now) {
+        if (charging != mPushedCharging || mPushedPercent < 0) {
+            mDirection = 0;
+        } else if (percent != mPushedPercent) {
+            mDirection = Integer.signum(percent - mPushedPercent);
+        }
+        mPushedPercent = percent;
+        mPushedCharging = charging;
+        mPushedTime = now;
+    }
+
+    /**
+     * Milliseconds until the last push becomes stale and {@link #shouldPush} returns true
+     * regardless of the level, 0 if it already is.
+     */
+    public synchronized long delayUntilStale(long now) {
+        if (mPushedPercent < 0) {
+            return 0;
+        }
+        return Math.max(0, mPushedTime + mMaxStaleMs - now);
+    }
+
+    public synchronized void restore(int percent, boolean charging, int direction, long time) {
+        mPushedPercent = percent;
+        mPushedCharging = charging;
+        mDirection = Integer.signum(direction);
+        mPushedTime = time;
+    }
+
+    /**
+     * Last pushed percentage, -1 before the first push.
+     */
+    public synchronized int getPushedPercent() {
+        return mPushedPercent;
+    }
+
+    public synchronized boolean isPushedCharging() {
+        return mPushedCharging;
+    }
+
+    /**
+     * Direction of the last level move that was pushed: -1 falling, 1 rising, 0 unknown.
+     */
+    public synchronized int getDirection() {
+        return mDirection;
+    }
+
+    public synchronized long getPushedTime() {
+        return mPushedTime;
+    }
+}
@@ -0,0 +1,86 @@
+package com.rusdelphi.batterywatchface;
+
+/**
+ * Latest battery state of the watch, the phone and a further phone, each packed into one volatile
+ * long so that a receiver can publish it and the renderer can read it without locks or allocation.
+ * <p>
+ * Layout of a packed value: bits 0-6 percent, bit 7 set when known, bit 8 charging, bits 9-63
+ * timestamp in milliseconds. {@link #UNKNOWN} (0) is the value before the first update.
+ */
+public final class BatteryState {
+    public static final int DEVICE_WATCH = 0;
+    public static final int DEVICE_PHONE = 1;
+    /**
+     * The most recent of the other paired phones, see {@link PeerBatteryStates#getSecondary}.
+     */
+    public static final int DEVICE_OTHER_PHONE = 2;
+
+    public static final long UNKNOWN = 0;
+
+    private static final long PERCENT_MASK = 0x7f;
+    private static final long KNOWN = 1 << 7;
+    private static final long CHARGING = 1 << 8;
+    private static final int TIMESTAMP_SHIFT = 9;
+
+    private volatile long mWatch = UNKNOWN;
+    private volatile long mPhone = UNKNOWN;
+    private volatile long mOtherPhone = UNKNOWN;
+
+    /**
+     * Publishes a device's state. A percentage outside 0..100 stores {@link #UNKNOWN}.
+     */
+    public void set(int device, int percent, boolean charging, long timestamp) {
+        set(device, pack(percent, charging, timestamp));
+    }
+
+    /**
+     * Publishes a device's state that is already packed.
+     */
+    public void set(int device, long packed) {
+        if (device == DEVICE_WATCH) {
+            mWatch = packed;
+        } else if (device == DEVICE_PHONE) {
+            mPhone = packed;
+        } else {
+            mOtherPhone = packed;
+        }
+    }
+
+    public long get(int device) {
+        return device == DEVICE_WATCH ? mWatch : device == DEVICE_PHONE ? mPhone : mOtherPhone;
+    }
+
+    public static long pack(int percent, boolean charging, long timestamp) {
+        if (percent < 0 || percent > 100) {
+            return UNKNOWN;
+        }
+        return (timestamp << TIMESTAMP_SHIFT) | (charging ? CHARGING : 0) | KNOWN | percent;
+    }
+
+    public static boolean isKnown(long state) {
+        return (state & KNOWN) != 0;
+    }
+
+    /**
+     * Percentage, or -1 if unknown.
+     */
+    public static int percent(long state) {
+        return isKnown(state) ? (int) (state & PERCENT_MASK) : -1;
+    }
+
+    public static boolean isCharging(long state) {
+        return (state & CHARGING) != 0;
+    }
+
+    public static long timestamp(long state) {
+        return state >>> TIMESTAMP_SHIFT;
+    }
+
+    /**
+     * Whether {@code state} is known but was last updated more than {@code maxAgeMs} before
+     * {@code now}.
+     */
+    public static boolean isStale(long state, long now, long maxAgeMs) {
+        return isKnown(state) && now - timestamp(state) > maxAgeMs;
+    }
+}
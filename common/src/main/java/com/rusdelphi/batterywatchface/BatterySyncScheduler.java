@@ -0,0 +1,131 @@
+package com.rusdelphi.batterywatchface;
+
+/**
+ * Decides when a battery update is worth sending to the other device. Updates that don't change
+ * the percentage or the charging state are dropped, bursts are coalesced into one send at the
+ * end of {@code coalesceWindowMs}, and sends are at least {@code minIntervalMs} apart.
+ * <p>
+ * The scheduler doesn't own a timer: {@link #offer} returns the delay after which the caller
+ * should call {@link #poll}. Not thread-safe, use it from one thread.
+ */
+public class BatterySyncScheduler {
+    public static final long NOTHING_PENDING = -1;
+
+    private final long mCoalesceWindowMs;
+    private final long mMinIntervalMs;
+
+    private int mSentPercent = -1;
+    private boolean mSentCharging;
+    private long mLastSentTime;
+    private boolean mHasSent;
+
+    private int mPendingPercent = -1;
+    private boolean mPendingCharging;
+    private long mPendingSince;
+    private boolean mHasPending;
+
+    private long mOfferedCount;
+    private long mSentCount;
+    private long mSuppressedCount;
+    private long mCoalescedCount;
+
+    public BatterySyncScheduler(long coalesceWindowMs, long minIntervalMs) {
+        mCoalesceWindowMs = coalesceWindowMs;
+        mMinIntervalMs = minIntervalMs;
+    }
+
+    /**
+     * Records a battery update. Returns the delay in milliseconds after which {@link #poll} should
+     * be called, or {@link #NOTHING_PENDING} if there is nothing to send.
+     */
+    public long offer(int percent, boolean charging, long now) {
+        mOfferedCount++;
+        if (mHasSent && percent == mSentPercent && charging == mSentCharging) {
+            // Back to what the other side already has, a pending change is no longer needed.
+            if (mHasPending) {
+                mHasPending = false;
+                mCoalescedCount++;
+            }
+            mSuppressedCount++;
+            return NOTHING_PENDING;
+        }
+        if (mHasPending) {
+            if (percent == mPendingPercent && charging == mPendingCharging) {
+                mSuppressedCount++;
+            } else {
+                mCoalescedCount++;
+            }
+        } else {
+            mHasPending = true;
+            mPendingSince = now;
+        }
+        mPendingPercent = percent;
+        mPendingCharging = charging;
+        return Math.max(0, dueTime() - now);
+    }
+
+    /**
+     * Returns true if the pending update is due and should be sent now; it is then considered
+     * sent. If false, {@link #delayUntilDue} tells when to poll again.
+     */
+    public boolean poll(long now) {
+        if (!mHasPending || now < dueTime()) {
+            return false;
+        }
+        mHasPending = false;
+        mHasSent = true;
+        mSentPercent = mPendingPercent;
+        mSentCharging = mPendingCharging;
+        mLastSentTime = now;
+        mSentCount++;
+        return true;
+    }
+
+    public long delayUntilDue(long now) {
+        return mHasPending ? Math.max(0, dueTime() - now) : NOTHING_PENDING;
+    }
+
+    /**
+     * Forgets what was sent, so that the next update goes out even if it is unchanged, e.g. after
+     * the connection to the other device was lost.
+     */
+    public void invalidate() {
+        mHasSent = false;
+    }
+
+    private long dueTime() {
+        long due = mPendingSince + mCoalesceWindowMs;
+        if (mHasSent) {
+            due = Math.max(due, mLastSentTime + mMinIntervalMs);
+        }
+        return due;
+    }
+
+    public long getOfferedCount() {
+        return mOfferedCount;
+    }
+
+    public long getSentCount() {
+        return mSentCount;
+    }
+
+    /**
+     * Updates dropped because they didn't change the percentage or the charging state.
+     */
+    public long getSuppressedCount() {
+        return mSuppressedCount;
+    }
+
+    /**
+     * Pending updates that were replaced by a newer one before being sent.
+     */
+    public long getCoalescedCount() {
+        return mCoalescedCount;
+    }
+
+    @Override
+    public String toString() {
+        return "BatterySyncScheduler{offered=" + mOfferedCount + ", sent=" + mSentCount
+                + ", suppressed=" + mSuppressedCount + ", coalesced=" + mCoalescedCount + "}";
+    }
+}
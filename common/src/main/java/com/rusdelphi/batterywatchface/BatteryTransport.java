@@ -0,0 +1,28 @@
+package com.rusdelphi.batterywatchface;
+
+import java.util.Collection;
+
+/**
+ * Delivers {@link BatteryCodec} messages to the other devices. On a device it wraps the wearable
+ * message API, in a JVM it can be a {@code LoopbackNetwork} node. Both methods may block, call
+ * them off the main thread.
+ */
+public interface BatteryTransport {
+    /**
+     * Receives messages from other nodes.
+     */
+    interface Receiver {
+        void onMessage(String sourceNodeId, byte[] data);
+    }
+
+    /**
+     * Ids of the nodes messages can be sent to, or null if they couldn't be listed.
+     */
+    Collection<String> getConnectedNodes();
+
+    /**
+     * Sends {@code data} to one node. Returns false if it couldn't be handed off; true doesn't
+     * mean the node got it.
+     */
+    boolean send(String nodeId, byte[] data);
+}
@@ -0,0 +1,139 @@
+package com.rusdelphi.batterywatchface;
+
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Wall clock for the face. Within a minute the seconds are derived from the minute's start, the
+ * calendar is consulted once a minute, and the date texts are formatted only when the day, the
+ * time zone or the locale changes.
+ */
+public final class ClockModel {
+    private static final long SECOND_MS = 1000;
+    private static final long MINUTE_MS = 60 * SECOND_MS;
+
+    private Calendar mCalendar;
+    private Locale mLocale;
+    private SimpleDateFormat mDateFormat;
+    private SimpleDateFormat mDayFormat;
+
+    private int mHour;
+    private int mMinute;
+    private int mSecond;
+    private String mDateText = "";
+    private String mDayText = "";
+
+    private long mMinuteStart;
+    private long mDayStart;
+    private long mNextDayStart;
+
+    public ClockModel(TimeZone timeZone, Locale locale) {
+        mCalendar = Calendar.getInstance(timeZone, locale);
+        createFormats(locale);
+    }
+
+    /**
+     * Does nothing if {@code timeZone} is the current one.
+     */
+    public void setTimeZone(TimeZone timeZone) {
+        if (timeZone.equals(mCalendar.getTimeZone())) {
+            return;
+        }
+        mCalendar.setTimeZone(timeZone);
+        mDateFormat.setTimeZone(timeZone);
+        mDayFormat.setTimeZone(timeZone);
+        invalidate();
+    }
+
+    /**
+     * Does nothing if {@code locale} is the current one.
+     *
+     * @return whether the locale changed
+     */
+    public boolean setLocale(Locale locale) {
+        if (locale.equals(mLocale)) {
+            return false;
+        }
+        TimeZone timeZone = mCalendar.getTimeZone();
+        mCalendar = Calendar.getInstance(timeZone, locale);
+        createFormats(locale);
+        invalidate();
+        return true;
+    }
+
+    /**
+     * Forces the next {@link #update} to recompute everything.
+     */
+    public void invalidate() {
+        mMinuteStart = 0;
+        mDayStart = 0;
+        mNextDayStart = 0;
+    }
+
+    /**
+     * Advances the clock to {@code now}. Returns true when the date texts changed.
+     */
+    public boolean update(long now) {
+        if (now >= mMinuteStart && now - mMinuteStart < MINUTE_MS) {
+            mSecond = (int) ((now - mMinuteStart) / SECOND_MS);
+            return false;
+        }
+        Calendar c = mCalendar;
+        c.setTimeInMillis(now);
+        mHour = c.get(Calendar.HOUR_OF_DAY);
+        mMinute = c.get(Calendar.MINUTE);
+        mSecond = c.get(Calendar.SECOND);
+        mMinuteStart = now - mSecond * SECOND_MS - c.get(Calendar.MILLISECOND);
+        if (now >= mDayStart && now < mNextDayStart) {
+            return false;
+        }
+        mDateText = mDateFormat.format(c.getTime());
+        mDayText = mDayFormat.format(c.getTime());
+        // Day boundaries from the calendar, a day is not always 24 hours long.
+        c.set(Calendar.HOUR_OF_DAY, 0);
+        c.set(Calendar.MINUTE, 0);
+        c.set(Calendar.SECOND, 0);
+        c.set(Calendar.MILLISECOND, 0);
+        mDayStart = c.getTimeInMillis();
+        c.add(Calendar.DAY_OF_YEAR, 1);
+        mNextDayStart = c.getTimeInMillis();
+        return true;
+    }
+
+    public int getHour() {
+        return mHour;
+    }
+
+    public int getMinute() {
+        return mMinute;
+    }
+
+    public int getSecond() {
+        return mSecond;
+    }
+
+    /**
+     * Day of month and abbreviated month, "05 Jan".
+     */
+    public String getDateText() {
+        return mDateText;
+    }
+
+    /**
+     * Abbreviated day of week, "Mon".
+     */
+    public String getDayText() {
+        return mDayText;
+    }
+
+    private void createFormats(Locale locale) {
+        mLocale = locale;
+        TimeZone timeZone = mCalendar.getTimeZone();
+        mDateFormat = new SimpleDateFormat("dd MMM", locale);
+        mDateFormat.setTimeZone(timeZone);
+        mDayFormat = new SimpleDateFormat("EEE", locale);
+        mDayFormat.setTimeZone(timeZone);
+    }
+}
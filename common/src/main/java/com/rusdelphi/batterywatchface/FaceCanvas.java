@@ -0,0 +1,86 @@
+package com.rusdelphi.batterywatchface;
+
+/**
+ * The drawing operations the face needs, so that {@link FaceRenderer} runs against a real canvas
+ * on the watch and against {@code RecordingFaceCanvas} on a plain JVM. Paints, icons and layers
+ * are referred to by the ids below; the implementation owns the actual objects.
+ */
+public interface FaceCanvas {
+    int PAINT_BACKGROUND = 0;
+    int PAINT_HOURS = 1;
+    int PAINT_MINUTES = 2;
+    int PAINT_ROUND_TIME = 3;
+    int PAINT_DATA = 4;
+    int PAINT_ROUND_DATA = 5;
+    int PAINT_SECONDS = 6;
+    int PAINT_SECONDS_ARC = 7;
+    int PAINT_TICK = 8;
+    int PAINT_TICK_HIGHLIGHT = 9;
+    int PAINT_ESTIMATE = 10;
+    int PAINT_AMBIENT = 11;
+    int PAINT_DEBUG = 12;
+    int PAINT_DATA_STALE = 13;
+    int PAINT_COUNT = 14;
+
+    int ICON_WATCH = 0;
+    int ICON_PHONE = 1;
+    int ICON_COUNT = 2;
+
+    /**
+     * Offscreen layers that are drawn rarely and blitted every frame.
+     */
+    int LAYER_DIAL = 0;
+    int LAYER_AMBIENT = 1;
+    int LAYER_COUNT = 2;
+
+    /**
+     * Paint and icon sizes, set when the layout changes rather than per frame.
+     */
+    void setTextSize(int paint, float size);
+
+    void setStrokeWidth(int paint, float width);
+
+    void setIconSize(int width, int height);
+
+    /**
+     * Returns a canvas drawing into {@code layer}, sized {@code width} x {@code height} and
+     * cleared to transparent. Valid until the next call for the same layer.
+     */
+    FaceCanvas beginLayer(int layer, int width, int height);
+
+    void drawLayer(int layer, float x, float y);
+
+    void drawColor(int argb);
+
+    void drawRect(float left, float top, float right, float bottom, int paint);
+
+    /**
+     * Draws {@code count / 4} lines from {@code pts}, as {@code Canvas.drawLines}.
+     */
+    void drawLines(float[] pts, int offset, int count, int paint);
+
+    /**
+     * Fills the closed polygon given by {@code pointCount} x, y pairs.
+     */
+    void fillPolygon(float[] xy, int pointCount, int paint);
+
+    void drawArc(float left, float top, float right, float bottom, float startAngle,
+                 float sweepAngle, int paint);
+
+    void drawIcon(int icon, float x, float y);
+
+    void drawText(CharSequence text, int start, int end, float x, float y, int paint);
+
+    void drawText(char[] text, int index, int count, float x, float y, int paint);
+
+    float measureText(CharSequence text, int start, int end, int paint);
+
+    float measureText(char[] text, int index, int count, int paint);
+
+    /**
+     * Distance above the baseline, negative like {@code Paint.ascent()}.
+     */
+    float getAscent(int paint);
+
+    float getDescent(int paint);
+}
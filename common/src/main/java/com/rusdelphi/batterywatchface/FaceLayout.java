@@ -0,0 +1,159 @@
+package com.rusdelphi.batterywatchface;
+
+/**
+ * Anchors, radii, text sizes and stroke widths of the face for one surface, computed when the
+ * surface size or shape changes and read by {@link FaceRenderer} as plain table lookups.
+ * <p>
+ * The face was designed on a 280px hdpi screen. The values below are given in that screen's dp
+ * (dp) or pixels (px) and scaled with the shorter side of the actual surface, so a 360-480px
+ * display shows the same face rather than the 280px one in its top left corner.
+ */
+public final class FaceLayout {
+    public static final int CENTER_X = 0;
+    public static final int TIME_Y = 1;
+    public static final int DATE_X = 2;
+    public static final int DATE_Y = 3;
+    public static final int DAY_Y = 4;
+    public static final int SECONDS_X = 5;
+    public static final int SECONDS_Y = 6;
+    public static final int ARC_LEFT = 7;
+    public static final int ARC_TOP = 8;
+    public static final int ARC_RIGHT = 9;
+    public static final int ARC_BOTTOM = 10;
+    public static final int WATCH_ICON_X = 11;
+    public static final int PHONE_ICON_X = 12;
+    public static final int ICON_Y = 13;
+    public static final int WATCH_LEVEL_X = 14;
+    public static final int PHONE_LEVEL_X = 15;
+    public static final int LEVEL_Y = 16;
+    public static final int ESTIMATE_Y = 17;
+    public static final int DEBUG_Y = 18;
+    public static final int TICK_LENGTH = 19;
+    public static final int MARKER_HALF_WIDTH = 20;
+    public static final int AMBIENT_SHIFT = 21;
+    public static final int ICON_WIDTH = 22;
+    public static final int ICON_HEIGHT = 23;
+    public static final int SIZE = 24;
+
+    private static final float REFERENCE_SIZE = 280;
+    private static final float REFERENCE_DENSITY = 1.5f;
+
+    private final float[] mValues = new float[SIZE];
+    private final float[] mTextSizes = new float[FaceCanvas.PAINT_COUNT];
+    private final float[] mStrokeWidths = new float[FaceCanvas.PAINT_COUNT];
+
+    private int mWidth = -1;
+    private int mHeight = -1;
+    private boolean mRound;
+    private float mScale;
+
+    /**
+     * Recomputes the tables for a surface. Returns false, doing nothing, if neither the size nor
+     * the shape changed.
+     */
+    public boolean update(int width, int height, boolean round) {
+        if (width == mWidth && height == mHeight && round == mRound) {
+            return false;
+        }
+        mWidth = width;
+        mHeight = height;
+        mRound = round;
+        mScale = Math.min(width, height) / REFERENCE_SIZE;
+
+        float[] v = mValues;
+        v[CENTER_X] = width / 2f;
+        v[DEBUG_Y] = dp(30);
+        v[MARKER_HALF_WIDTH] = px(10);
+        v[AMBIENT_SHIFT] = Math.max(1, px(2));
+        v[ICON_WIDTH] = px(30);
+        v[ICON_HEIGHT] = px(56);
+        v[PHONE_ICON_X] = dp(116);
+        v[ICON_Y] = dp(132);
+        float arcX, arcY, arcRadius;
+        if (round) {
+            v[TIME_Y] = dp(75);
+            v[DATE_X] = dp(35);
+            v[DATE_Y] = dp(96);
+            v[DAY_Y] = dp(109);
+            v[SECONDS_X] = dp(130);
+            v[SECONDS_Y] = dp(109);
+            arcX = dp(144);
+            arcY = dp(99);
+            arcRadius = px(30);
+            v[WATCH_ICON_X] = dp(50);
+            v[WATCH_LEVEL_X] = dp(71);
+            v[PHONE_LEVEL_X] = dp(137);
+            v[LEVEL_Y] = dp(156);
+            v[ESTIMATE_Y] = dp(168);
+            v[TICK_LENGTH] = px(20);
+        } else {
+            v[TIME_Y] = dp(77);
+            v[DATE_X] = dp(29);
+            v[DATE_Y] = dp(106);
+            v[DAY_Y] = dp(118);
+            v[SECONDS_X] = dp(130);
+            v[SECONDS_Y] = dp(116);
+            arcX = dp(143);
+            arcY = dp(108);
+            arcRadius = px(31);
+            v[WATCH_ICON_X] = dp(29);
+            v[WATCH_LEVEL_X] = dp(50);
+            v[PHONE_LEVEL_X] = dp(136);
+            v[LEVEL_Y] = dp(151);
+            v[ESTIMATE_Y] = dp(165);
+            v[TICK_LENGTH] = px(10);
+        }
+        v[ARC_LEFT] = arcX - arcRadius;
+        v[ARC_TOP] = arcY - arcRadius;
+        v[ARC_RIGHT] = arcX + arcRadius;
+        v[ARC_BOTTOM] = arcY + arcRadius;
+
+        float[] t = mTextSizes;
+        t[FaceCanvas.PAINT_HOURS] = dp(50);
+        t[FaceCanvas.PAINT_MINUTES] = dp(52);
+        t[FaceCanvas.PAINT_ROUND_TIME] = dp(38);
+        t[FaceCanvas.PAINT_DATA] = px(25);
+        t[FaceCanvas.PAINT_DATA_STALE] = px(25);
+        t[FaceCanvas.PAINT_ROUND_DATA] = px(20);
+        t[FaceCanvas.PAINT_SECONDS] = px(40);
+        t[FaceCanvas.PAINT_ESTIMATE] = px(16);
+        t[FaceCanvas.PAINT_AMBIENT] = dp(50);
+        t[FaceCanvas.PAINT_DEBUG] = px(14);
+
+        float[] s = mStrokeWidths;
+        s[FaceCanvas.PAINT_TICK] = px(2);
+        s[FaceCanvas.PAINT_TICK_HIGHLIGHT] = px(2);
+        s[FaceCanvas.PAINT_SECONDS_ARC] = px(4);
+        return true;
+    }
+
+    public float get(int key) {
+        return mValues[key];
+    }
+
+    /**
+     * Text size for a {@link FaceCanvas} paint id, 0 for paints that don't draw text.
+     */
+    public float getTextSize(int paint) {
+        return mTextSizes[paint];
+    }
+
+    /**
+     * Stroke width for a {@link FaceCanvas} paint id, 0 for paints that don't stroke.
+     */
+    public float getStrokeWidth(int paint) {
+        return mStrokeWidths[paint];
+    }
+
+    public float getScale() {
+        return mScale;
+    }
+
+    private float dp(float dp) {
+        return dp * REFERENCE_DENSITY * mScale;
+    }
+
+    private float px(float px) {
+        return px * mScale;
+    }
+}
@@ -0,0 +1,439 @@
+package com.rusdelphi.batterywatchface;
+
+/**
+ * Layout and drawing of the face for the round, square, interactive and ambient variants,
+ * expressed against {@link FaceCanvas}. The caller sets the state that changed and calls
+ * {@link #draw} once per frame; nothing in the frame path allocates.
+ * <p>
+ * Positions and sizes come from a {@link FaceLayout} computed when the surface or its shape
+ * changes. The background, ticks and triangle marker live in {@link FaceCanvas#LAYER_DIAL},
+ * rebuilt only then. The ambient time lives in
+ * {@link FaceCanvas#LAYER_AMBIENT}, rebuilt once a minute.
+ * <p>
+ * In {@link #setMinimal minimal} mode every frame is the ambient one, so that a face can show
+ * the time before its other paints and icons are loaded.
+ */
+public class FaceRenderer {
+    private static final int BLACK = 0xff000000;
+
+    /**
+     * Precomputed "0".."59", "00".."59" and ":00"..":59" so that the draw path never formats
+     * numbers.
+     */
+    private static final String[] DIGITS = new String[60];
+    private static final String[] TWO_DIGITS = new String[60];
+    private static final String[] COLON_TWO_DIGITS = new String[60];
+
+    /**
+     * Offsets applied to the ambient frame, one step per minute, so the same pixels don't stay lit.
+     * In units of {@link FaceLayout#AMBIENT_SHIFT}.
+     */
+    private static final int[] AMBIENT_SHIFT_X = {0, 1, 1, 0, -1, -1, -1, 0, 1};
+    private static final int[] AMBIENT_SHIFT_Y = {0, 0, 1, 1, 1, 0, -1, -1, -1};
+
+    static {
+        for (int i = 0; i < 60; i++) {
+            DIGITS[i] = String.valueOf(i);
+            TWO_DIGITS[i] = i < 10 ? "0" + i : DIGITS[i];
+            COLON_TWO_DIGITS[i] = ":" + TWO_DIGITS[i];
+        }
+    }
+
+    private final RenderStats mStats;
+
+    private final FaceLayout mLayout = new FaceLayout();
+    private int mWidth, mHeight;
+    private boolean mRound;
+    private boolean mLayoutDirty = true;
+    private boolean mPaintsDirty;
+    private boolean mMinimal;
+    private boolean mDialDirty = true;
+    private boolean mAmbientDirty = true;
+    private int mAmbientMinute = -1;
+    private int mAmbientWidth, mAmbientHeight;
+
+    private int mHour, mMinute, mSecond;
+    private String mDateText = "", mDayText = "";
+    private String mWatchLevel = BatteryFormat.UNKNOWN, mPhoneLevel = BatteryFormat.UNKNOWN;
+    private boolean mPhoneStale;
+    private long mStaleAfterMs = Long.MAX_VALUE;
+    private String mWatchEstimate, mPhoneEstimate;
+    private String mOtherPhoneLevel;
+    private boolean mDebugOverlay;
+
+    private final char[] mTimeChars = new char[5];
+    private final float[] mTickPoints = new float[TickGeometry.POINTS_SIZE];
+    private final float[] mTriangle = new float[6];
+    private final StringBuilder mDebugText = new StringBuilder(32);
+
+    /**
+     * Hour and "H:MM" widths for centering, measured when the paints change rather than per frame.
+     */
+    private final TimeTextWidths mSquareWidths =
+            new TimeTextWidths(FaceCanvas.PAINT_HOURS, TWO_DIGITS, null);
+    private final TimeTextWidths mRoundWidths =
+            new TimeTextWidths(FaceCanvas.PAINT_ROUND_TIME, DIGITS, COLON_TWO_DIGITS);
+    private final TimeTextWidths mAmbientWidths =
+            new TimeTextWidths(FaceCanvas.PAINT_AMBIENT, DIGITS, COLON_TWO_DIGITS);
+
+    public FaceRenderer(RenderStats stats) {
+        mStats = stats;
+    }
+
+    public void setSurfaceSize(int width, int height) {
+        if (width != mWidth || height != mHeight) {
+            mWidth = width;
+            mHeight = height;
+            mLayoutDirty = true;
+        }
+    }
+
+    public void setRound(boolean round) {
+        if (round != mRound) {
+            mRound = round;
+            mLayoutDirty = true;
+        }
+    }
+
+    /**
+     * Rebuilds the cached layers and text widths on the next frame, e.g. after paints changed.
+     */
+    public void invalidateLayers() {
+        mDialDirty = true;
+        mAmbientDirty = true;
+        mSquareWidths.invalidate();
+        mRoundWidths.invalidate();
+        mAmbientWidths.invalidate();
+    }
+
+    public void setTime(int hour, int minute, int second) {
+        mHour = hour;
+        mMinute = minute;
+        mSecond = second;
+    }
+
+    public void setDate(String date, String dayOfWeek) {
+        mDateText = date;
+        mDayText = dayOfWeek;
+    }
+
+    /**
+     * A phone level older than {@code staleAfterMs} is drawn greyed out and without an estimate.
+     * The watch's own level comes from its sticky battery broadcast and is never stale.
+     */
+    public void setStaleAfter(long staleAfterMs) {
+        mStaleAfterMs = staleAfterMs;
+    }
+
+    /**
+     * Levels as packed {@link BatteryState} values; the phone's is checked against {@code now}.
+     */
+    public void setBattery(long watch, long phone, long now) {
+        mWatchLevel = BatteryFormat.percent(BatteryState.percent(watch));
+        mPhoneLevel = BatteryFormat.percent(BatteryState.percent(phone));
+        mPhoneStale = BatteryState.isStale(phone, now, mStaleAfterMs);
+    }
+
+    /**
+     * Level of a further paired device, as a packed {@link BatteryState} value. When known and
+     * not stale at {@code now} it is drawn under the phone's level in place of the phone's
+     * estimate.
+     */
+    public void setOtherPhone(long other, long now) {
+        mOtherPhoneLevel = BatteryState.isStale(other, now, mStaleAfterMs) ? null
+                : BatteryFormat.otherPercent(BatteryState.percent(other));
+    }
+
+    /**
+     * Remaining time texts, null when unknown.
+     */
+    public void setEstimates(String watch, String phone) {
+        mWatchEstimate = watch;
+        mPhoneEstimate = phone;
+    }
+
+    /**
+     * Sets everything that changes from frame to frame as of {@code now}: advances {@code clock}
+     * and reads the levels from {@code batteryState} and the estimates. The face calls it before
+     * every {@link #draw}.
+     */
+    public void update(ClockModel clock, BatteryState batteryState,
+            BatteryEstimator watchEstimator, BatteryEstimator phoneEstimator, long now) {
+        if (clock.update(now)) {
+            setDate(clock.getDateText(), clock.getDayText());
+        }
+        setTime(clock.getHour(), clock.getMinute(), clock.getSecond());
+        setBattery(batteryState.get(BatteryState.DEVICE_WATCH),
+                batteryState.get(BatteryState.DEVICE_PHONE), now);
+        setOtherPhone(batteryState.get(BatteryState.DEVICE_OTHER_PHONE), now);
+        setEstimates(BatteryFormat.duration(watchEstimator.estimateMillis(now)),
+                BatteryFormat.duration(phoneEstimator.estimateMillis(now)));
+    }
+
+    /**
+     * While minimal only {@link FaceCanvas#PAINT_AMBIENT} is used, the canvas may lack the other
+     * paints and the icons. Leaving it reapplies the layout to the paints on the next frame.
+     */
+    public void setMinimal(boolean minimal) {
+        if (minimal != mMinimal) {
+            mMinimal = minimal;
+            mPaintsDirty = true;
+        }
+    }
+
+    public void setDebugOverlay(boolean debugOverlay) {
+        mDebugOverlay = debugOverlay;
+    }
+
+    public void draw(FaceCanvas canvas, boolean ambient, boolean showSeconds) {
+        long frameStart = System.nanoTime();
+        if (mLayoutDirty || mPaintsDirty) {
+            if (mLayout.update(mWidth, mHeight, mRound) || mPaintsDirty) {
+                applyLayout(canvas);
+            }
+            mLayoutDirty = false;
+            mPaintsDirty = false;
+        }
+        if (ambient || mMinimal) {
+            drawAmbient(canvas);
+            mark(RenderStats.SECTION_AMBIENT, frameStart);
+        } else {
+            if (mDialDirty) {
+                drawDial(canvas.beginLayer(FaceCanvas.LAYER_DIAL, mWidth, mHeight));
+                mDialDirty = false;
+            }
+            canvas.drawLayer(FaceCanvas.LAYER_DIAL, 0, 0);
+            long t = mark(RenderStats.SECTION_BACKGROUND, frameStart);
+            if (mRound) {
+                drawRound(canvas, showSeconds, t);
+            } else {
+                drawSquare(canvas, showSeconds, t);
+            }
+        }
+        mark(RenderStats.SECTION_FRAME, frameStart);
+        mStats.countFrame(ambient ? RenderStats.MODE_AMBIENT : RenderStats.MODE_INTERACTIVE);
+        mStats.countFrame(mRound ? RenderStats.MODE_ROUND : RenderStats.MODE_SQUARE);
+        if (mDebugOverlay && !ambient && !mMinimal) {
+            drawDebugOverlay(canvas);
+        }
+    }
+
+    /**
+     * Pushes the layout's sizes to the paints and icons and drops everything measured or drawn
+     * with the old ones.
+     */
+    private void applyLayout(FaceCanvas canvas) {
+        FaceLayout layout = mLayout;
+        for (int paint = 0; paint < FaceCanvas.PAINT_COUNT; paint++) {
+            float textSize = layout.getTextSize(paint);
+            if (textSize > 0) {
+                canvas.setTextSize(paint, textSize);
+            }
+            float strokeWidth = layout.getStrokeWidth(paint);
+            if (strokeWidth > 0) {
+                canvas.setStrokeWidth(paint, strokeWidth);
+            }
+        }
+        canvas.setIconSize(Math.round(layout.get(FaceLayout.ICON_WIDTH)),
+                Math.round(layout.get(FaceLayout.ICON_HEIGHT)));
+        float centerX = layout.get(FaceLayout.CENTER_X);
+        float halfWidth = layout.get(FaceLayout.MARKER_HALF_WIDTH);
+        mTriangle[0] = centerX - halfWidth;
+        mTriangle[1] = 0;
+        mTriangle[2] = centerX + halfWidth;
+        mTriangle[3] = 0;
+        mTriangle[4] = centerX;
+        mTriangle[5] = (float) (Math.sqrt(3) * halfWidth);
+        invalidateLayers();
+    }
+
+    /**
+     * Records the time since {@code since} for {@code section} and returns the current time.
+     */
+    private long mark(int section, long since) {
+        long now = System.nanoTime();
+        mStats.record(section, now - since);
+        return now;
+    }
+
+    private void drawSquare(FaceCanvas canvas, boolean showSeconds, long t) {
+        FaceLayout layout = mLayout;
+        mSquareWidths.measure(canvas);
+        float centerX = layout.get(FaceLayout.CENTER_X);
+        float yPos = layout.get(FaceLayout.TIME_Y);
+        String hour = twoDigits(mHour);
+        canvas.drawText(hour, 0, hour.length(), (int) (centerX - mSquareWidths.hour(mHour)), yPos,
+                FaceCanvas.PAINT_HOURS);
+        String minute = twoDigits(mMinute);
+        canvas.drawText(minute, 0, minute.length(), centerX, yPos, FaceCanvas.PAINT_MINUTES);
+
+        drawDate(canvas, FaceCanvas.PAINT_DATA);
+        t = mark(RenderStats.SECTION_TIME, t);
+
+        if (showSeconds) {
+            drawSeconds(canvas);
+            t = mark(RenderStats.SECTION_SECONDS, t);
+
+            drawBattery(canvas);
+            t = mark(RenderStats.SECTION_BATTERY, t);
+        }
+
+        // Only the current second's tick changes, the rest comes from the dial layer.
+        if (mSecond > 0) {
+            canvas.drawLines(mTickPoints, TickGeometry.offsetOf(mSecond), 4,
+                    FaceCanvas.PAINT_TICK_HIGHLIGHT);
+        }
+        mark(RenderStats.SECTION_DIAL, t);
+    }
+
+    private void drawRound(FaceCanvas canvas, boolean showSeconds, long t) {
+        FaceLayout layout = mLayout;
+        mRoundWidths.measure(canvas);
+        int length = fillTimeChars(mTimeChars, mHour, mMinute);
+        int xPos = (int) layout.get(FaceLayout.CENTER_X) - ((int) mRoundWidths.time(mHour, mMinute) / 2);
+        canvas.drawText(mTimeChars, 0, length, xPos, layout.get(FaceLayout.TIME_Y),
+                FaceCanvas.PAINT_ROUND_TIME);
+
+        drawDate(canvas, FaceCanvas.PAINT_ROUND_DATA);
+        t = mark(RenderStats.SECTION_TIME, t);
+
+        if (showSeconds) {
+            drawSeconds(canvas);
+            t = mark(RenderStats.SECTION_SECONDS, t);
+
+            drawBattery(canvas);
+            mark(RenderStats.SECTION_BATTERY, t);
+        }
+    }
+
+    private void drawDate(FaceCanvas canvas, int paint) {
+        FaceLayout layout = mLayout;
+        float x = layout.get(FaceLayout.DATE_X);
+        drawText(canvas, mDateText, x, layout.get(FaceLayout.DATE_Y), paint);
+        drawText(canvas, mDayText, x, layout.get(FaceLayout.DAY_Y), paint);
+    }
+
+    /**
+     * Seconds number and the arc filling up around it.
+     */
+    private void drawSeconds(FaceCanvas canvas) {
+        FaceLayout layout = mLayout;
+        String second = DIGITS[mSecond];
+        canvas.drawText(second, 0, second.length(), layout.get(FaceLayout.SECONDS_X),
+                layout.get(FaceLayout.SECONDS_Y), FaceCanvas.PAINT_SECONDS);
+        canvas.drawArc(layout.get(FaceLayout.ARC_LEFT), layout.get(FaceLayout.ARC_TOP),
+                layout.get(FaceLayout.ARC_RIGHT), layout.get(FaceLayout.ARC_BOTTOM),
+                270, 6 * mSecond, FaceCanvas.PAINT_SECONDS_ARC);
+    }
+
+    /**
+     * Icons and levels of both devices, with the estimated time to empty (or to full while
+     * charging) under each level, or another paired device's level under the phone's.
+     */
+    private void drawBattery(FaceCanvas canvas) {
+        FaceLayout layout = mLayout;
+        float iconY = layout.get(FaceLayout.ICON_Y);
+        float levelY = layout.get(FaceLayout.LEVEL_Y);
+        float watchX = layout.get(FaceLayout.WATCH_LEVEL_X);
+        float phoneX = layout.get(FaceLayout.PHONE_LEVEL_X);
+        canvas.drawIcon(FaceCanvas.ICON_WATCH, layout.get(FaceLayout.WATCH_ICON_X), iconY);
+        drawText(canvas, mWatchLevel, watchX, levelY, FaceCanvas.PAINT_DATA);
+        canvas.drawIcon(FaceCanvas.ICON_PHONE, layout.get(FaceLayout.PHONE_ICON_X), iconY);
+        drawText(canvas, mPhoneLevel, phoneX, levelY,
+                mPhoneStale ? FaceCanvas.PAINT_DATA_STALE : FaceCanvas.PAINT_DATA);
+        float estimateY = layout.get(FaceLayout.ESTIMATE_Y);
+        if (mWatchEstimate != null) {
+            drawText(canvas, mWatchEstimate, watchX, estimateY, FaceCanvas.PAINT_ESTIMATE);
+        }
+        if (mOtherPhoneLevel != null) {
+            drawText(canvas, mOtherPhoneLevel, phoneX, estimateY, FaceCanvas.PAINT_ESTIMATE);
+        } else if (mPhoneEstimate != null && !mPhoneStale) {
+            drawText(canvas, mPhoneEstimate, phoneX, estimateY, FaceCanvas.PAINT_ESTIMATE);
+        }
+    }
+
+    private void drawDial(FaceCanvas layer) {
+        float tickLength = mLayout.get(FaceLayout.TICK_LENGTH);
+        if (mRound) {
+            TickGeometry.fillRound(mTickPoints, mWidth, mHeight, tickLength);
+        } else {
+            TickGeometry.fillSquare(mTickPoints, mWidth, mHeight, tickLength);
+        }
+        layer.drawRect(0, 0, mWidth, mHeight, FaceCanvas.PAINT_BACKGROUND);
+        layer.drawLines(mTickPoints, 0, mTickPoints.length, FaceCanvas.PAINT_TICK);
+        layer.fillPolygon(mTriangle, 3, FaceCanvas.PAINT_TICK);
+    }
+
+    /**
+     * Ambient frame: hours and minutes only, without dial, icons or filled areas. The text is
+     * rendered into its layer when the minute changes, every other ambient frame is a clear and
+     * a blit.
+     */
+    private void drawAmbient(FaceCanvas canvas) {
+        if (mAmbientDirty) {
+            mAmbientWidth = (int) Math.ceil(canvas.measureText("00:00", 0, 5, FaceCanvas.PAINT_AMBIENT));
+            mAmbientHeight = (int) Math.ceil(canvas.getDescent(FaceCanvas.PAINT_AMBIENT)
+                    - canvas.getAscent(FaceCanvas.PAINT_AMBIENT));
+            mAmbientMinute = -1;
+            mAmbientDirty = false;
+        }
+        mAmbientWidths.measure(canvas);
+        int minuteOfDay = mHour * 60 + mMinute;
+        if (minuteOfDay != mAmbientMinute) {
+            mAmbientMinute = minuteOfDay;
+            FaceCanvas layer = canvas.beginLayer(FaceCanvas.LAYER_AMBIENT, mAmbientWidth, mAmbientHeight);
+            layer.drawColor(BLACK);
+            int length = fillTimeChars(mTimeChars, mHour, mMinute);
+            float x = (mAmbientWidth - mAmbientWidths.time(mHour, mMinute)) / 2;
+            layer.drawText(mTimeChars, 0, length, x, -layer.getAscent(FaceCanvas.PAINT_AMBIENT),
+                    FaceCanvas.PAINT_AMBIENT);
+        }
+        int shift = minuteOfDay % AMBIENT_SHIFT_X.length;
+        float step = mLayout.get(FaceLayout.AMBIENT_SHIFT);
+        canvas.drawColor(BLACK);
+        canvas.drawLayer(FaceCanvas.LAYER_AMBIENT,
+                (mWidth - mAmbientWidth) / 2 + AMBIENT_SHIFT_X[shift] * step,
+                (mHeight - mAmbientHeight) / 2 + AMBIENT_SHIFT_Y[shift] * step);
+    }
+
+    /**
+     * Last, median and 99th percentile frame time in microseconds, drawn outside the measured
+     * part of the frame.
+     */
+    private void drawDebugOverlay(FaceCanvas canvas) {
+        StringBuilder text = mDebugText;
+        text.setLength(0);
+        text.append(mStats.getLast(RenderStats.SECTION_FRAME) / 1000)
+                .append("us p50 ").append(mStats.percentile(RenderStats.SECTION_FRAME, 50) / 1000)
+                .append(" p99 ").append(mStats.percentile(RenderStats.SECTION_FRAME, 99) / 1000);
+        float x = (mWidth - canvas.measureText(text, 0, text.length(), FaceCanvas.PAINT_DEBUG)) / 2;
+        canvas.drawText(text, 0, text.length(), x, mLayout.get(FaceLayout.DEBUG_Y),
+                FaceCanvas.PAINT_DEBUG);
+    }
+
+    private static void drawText(FaceCanvas canvas, String text, float x, float y, int paint) {
+        canvas.drawText(text, 0, text.length(), x, y, paint);
+    }
+
+    /**
+     * "05" for 5, from a table; {@code value} is 0 to 59.
+     */
+    static String twoDigits(int value) {
+        return TWO_DIGITS[value];
+    }
+
+    /**
+     * Writes "H:MM" into {@code chars} and returns the number of chars used.
+     */
+    static int fillTimeChars(char[] chars, int hour, int minute) {
+        int i = 0;
+        if (hour >= 10) {
+            chars[i++] = (char) ('0' + hour / 10);
+        }
+        chars[i++] = (char) ('0' + hour % 10);
+        chars[i++] = ':';
+        chars[i++] = (char) ('0' + minute / 10);
+        chars[i++] = (char) ('0' + minute % 10);
+        return i;
+    }
+}
@@ -0,0 +1,177 @@
+package com.rusdelphi.batterywatchface;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Sends one message to every connected node of a {@link BatteryTransport}.
+ * <p>
+ * {@link #send} sends to all nodes at once on an executor and gives each {@code timeoutMs}, so a
+ * slow node doesn't hold up the others. {@link #sendToAll} sends one node after the other on the
+ * calling thread, for transports that aren't thread-safe.
+ */
+public final class NodeFanout {
+    private final Executor mExecutor;
+    private final long mTimeoutMs;
+
+    /**
+     * Nodes that got {@link #mDeliveredData}, the payload of the last call.
+     */
+    private final Set<String> mDelivered = new HashSet<String>();
+    private byte[] mDeliveredData;
+
+    private volatile long mSendCount;
+    private volatile long mFailureCount;
+    private volatile long mTimeoutCount;
+    private volatile long mSkipCount;
+
+    /**
+     * @param executor may be shared with other work: a send that doesn't start in time counts as
+     *                 timed out like one that doesn't finish
+     */
+    public NodeFanout(Executor executor, long timeoutMs) {
+        mExecutor = executor;
+        mTimeoutMs = timeoutMs;
+    }
+
+    /**
+     * A pool of {@code threads} with room for {@code queueSize} waiting sends. Sends beyond that
+     * are rejected and count as failed, so a stuck node can't pile up threads or tasks.
+     */
+    public static ExecutorService newExecutor(int threads, int queueSize) {
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize));
+    }
+
+    /**
+     * Returns false if there was no node or a send failed or timed out, so the caller retries.
+     * Blocks for at most about {@code timeoutMs}.
+     * <p>
+     * A retry with the same {@code data} array as the last call goes only to the nodes that
+     * didn't get it yet; a different array goes to every node again.
+     */
+    public boolean send(final BatteryTransport transport, final byte[] data) {
+        Collection<String> nodes = transport.getConnectedNodes();
+        if (nodes == null || nodes.isEmpty()) {
+            return false;
+        }
+        List<String> targets = new ArrayList<String>(nodes.size());
+        synchronized (mDelivered) {
+            if (data != mDeliveredData) {
+                mDeliveredData = data;
+                mDelivered.clear();
+            }
+            for (String nodeId : nodes) {
+                if (mDelivered.contains(nodeId)) {
+                    mSkipCount++;
+                } else {
+                    targets.add(nodeId);
+                }
+            }
+        }
+        if (targets.isEmpty()) {
+            // The nodes that hadn't got it are gone.
+            return true;
+        }
+        if (targets.size() == 1) {
+            // Nothing to wait on in parallel, skip the thread hop.
+            String nodeId = targets.get(0);
+            return delivered(data, nodeId, transport.send(nodeId, data));
+        }
+        List<Future<Boolean>> sends = new ArrayList<Future<Boolean>>(targets.size());
+        boolean sent = true;
+        for (final String nodeId : targets) {
+            FutureTask<Boolean> send = new FutureTask<Boolean>(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return transport.send(nodeId, data);
+                }
+            });
+            try {
+                mExecutor.execute(send);
+            } catch (RejectedExecutionException e) {
+                sent &= count(false);
+                send = null;
+            }
+            sends.add(send);
+        }
+        // All sends started together, so one deadline is each node's timeout.
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(mTimeoutMs);
+        for (int i = 0; i < sends.size(); i++) {
+            Future<Boolean> send = sends.get(i);
+            if (send == null) {
+                continue;
+            }
+            try {
+                sent &= delivered(data, targets.get(i),
+                        send.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS));
+            } catch (TimeoutException e) {
+                send.cancel(true);
+                mSendCount++;
+                mTimeoutCount++;
+                sent = false;
+            } catch (ExecutionException e) {
+                sent &= count(false);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return sent;
+    }
+
+    private boolean delivered(byte[] data, String nodeId, boolean sent) {
+        if (sent) {
+            synchronized (mDelivered) {
+                if (data == mDeliveredData) {
+                    mDelivered.add(nodeId);
+                }
+            }
+        }
+        return count(sent);
+    }
+
+    private boolean count(boolean sent) {
+        mSendCount++;
+        if (!sent) {
+            mFailureCount++;
+        }
+        return sent;
+    }
+
+    /**
+     * Sends to the nodes one after the other on the calling thread. Returns false if there was
+     * no node or a send failed.
+     */
+    public static boolean sendToAll(BatteryTransport transport, byte[] data) {
+        Collection<String> nodes = transport.getConnectedNodes();
+        if (nodes == null || nodes.isEmpty()) {
+            return false;
+        }
+        boolean sent = true;
+        for (String nodeId : nodes) {
+            sent &= transport.send(nodeId, data);
+        }
+        return sent;
+    }
+
+    @Override
+    public String toString() {
+        return "NodeFanout{sends=" + mSendCount + ", failures=" + mFailureCount
+                + ", timeouts=" + mTimeoutCount + ", skipped=" + mSkipCount + "}";
+    }
+}
@@ -0,0 +1,9 @@
+package com.rusdelphi.batterywatchface;
+
+/**
+ * Where the sync logic hands off encoded messages for the other device, one slot per kind of
+ * message as in {@link SyncConnection}. Implementations must not block.
+ */
+public interface Outbox {
+    void offer(int slot, byte[] data);
+}
@@ -0,0 +1,120 @@
+package com.rusdelphi.batterywatchface;
+
+/**
+ * Battery states of the other nodes by node id, as packed {@link BatteryState} values, and which
+ * of them is shown as the phone.
+ * <p>
+ * The first node to report becomes the primary and stays so while its state is younger than
+ * {@code maxAgeMs}, so with several paired devices the face doesn't jump to whichever answered
+ * last. Once it is older or unknown, the next node to report takes over. At most
+ * {@link #MAX_PEERS} nodes are kept; a new one replaces the least recently updated other than the
+ * primary.
+ */
+public class PeerBatteryStates {
+    public static final int MAX_PEERS = 4;
+
+    private final long mMaxAgeMs;
+    private final String[] mIds = new String[MAX_PEERS];
+    private final long[] mStates = new long[MAX_PEERS];
+    private int mCount;
+    private int mPrimary = -1;
+
+    public PeerBatteryStates(long maxAgeMs) {
+        mMaxAgeMs = maxAgeMs;
+    }
+
+    /**
+     * Stores a node's state received at wall clock time {@code now}. Returns true if the node is
+     * the primary.
+     */
+    public synchronized boolean set(String nodeId, int percent, boolean charging, long timestamp,
+            long now) {
+        int index = indexOf(nodeId);
+        if (index < 0) {
+            index = mCount < MAX_PEERS ? mCount++ : leastRecent();
+            mIds[index] = nodeId;
+        }
+        mStates[index] = BatteryState.pack(percent, charging, timestamp);
+        long primary = mPrimary < 0 ? BatteryState.UNKNOWN : mStates[mPrimary];
+        if (mPrimary < 0 || (mPrimary != index && (!BatteryState.isKnown(primary)
+                || BatteryState.isStale(primary, now, mMaxAgeMs)))) {
+            mPrimary = index;
+        }
+        return index == mPrimary;
+    }
+
+    /**
+     * State of {@code nodeId}, {@link BatteryState#UNKNOWN} if it never reported.
+     */
+    public synchronized long get(String nodeId) {
+        int index = indexOf(nodeId);
+        return index < 0 ? BatteryState.UNKNOWN : mStates[index];
+    }
+
+    /**
+     * State shown as the phone's, {@link BatteryState#UNKNOWN} if no node reported yet.
+     */
+    public synchronized long getPrimary() {
+        return mPrimary < 0 ? BatteryState.UNKNOWN : mStates[mPrimary];
+    }
+
+    public synchronized String getPrimaryId() {
+        return mPrimary < 0 ? null : mIds[mPrimary];
+    }
+
+    /**
+     * The most recent state of the nodes other than the primary, {@link BatteryState#UNKNOWN} if
+     * there is none. Read it when a state arrives and publish it as
+     * {@link BatteryState#DEVICE_OTHER_PHONE}; the face reads that instead of taking this lock per
+     * frame, and checks the age itself.
+     */
+    public synchronized long getSecondary() {
+        long best = BatteryState.UNKNOWN;
+        for (int i = 0; i < mCount; i++) {
+            long state = mStates[i];
+            if (i != mPrimary && BatteryState.isKnown(state)
+                    && (best == BatteryState.UNKNOWN
+                    || BatteryState.timestamp(state) > BatteryState.timestamp(best))) {
+                best = state;
+            }
+        }
+        return best;
+    }
+
+    public synchronized int size() {
+        return mCount;
+    }
+
+    private int indexOf(String nodeId) {
+        for (int i = 0; i < mCount; i++) {
+            if (mIds[i].equals(nodeId)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int leastRecent() {
+        int oldest = -1;
+        for (int i = 0; i < mCount; i++) {
+            if (i != mPrimary && (oldest < 0
+                    || BatteryState.timestamp(mStates[i]) < BatteryState.timestamp(mStates[oldest]))) {
+                oldest = i;
+            }
+        }
+        return oldest;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder("PeerBatteryStates{");
+        for (int i = 0; i < mCount; i++) {
+            if (i > 0) {
+                builder.append(", ");
+            }
+            builder.append(mIds[i]).append(i == mPrimary ? "*=" : "=")
+                    .append(BatteryState.percent(mStates[i])).append('%');
+        }
+        return builder.append('}').toString();
+    }
+}
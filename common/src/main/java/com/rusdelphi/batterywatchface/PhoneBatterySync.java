@@ -0,0 +1,135 @@
+package com.rusdelphi.batterywatchface;
+
+/**
+ * Phone side of the battery sync: answers the watch's requests and pushes the state when
+ * {@link BatteryPushPolicy} says so. Reads the battery through a {@link StateSource} and sends
+ * through an {@link Outbox}, so the same logic runs in the app and against a
+ * {@code LoopbackNetwork}.
+ * <p>
+ * Requests are answered from a state read at most {@code replyCacheMs} ago, so a burst of them
+ * reads the battery once. Not thread-safe. Times are wall clock milliseconds.
+ */
+public class PhoneBatterySync {
+    public interface StateSource {
+        /**
+         * Fills {@code out} with the current battery state and returns it.
+         */
+        BatteryMessage read(BatteryMessage out);
+    }
+
+    public interface Listener {
+        /**
+         * A newly read state was sent; {@code time} is its timestamp.
+         */
+        void onStateSent(int percent, boolean charging, long time);
+    }
+
+    private final StateSource mSource;
+    private final Outbox mOutbox;
+    private final BatteryPushPolicy mPolicy;
+    private final long mReplyCacheMs;
+    private Listener mListener;
+
+    private final BatteryMessage mIncoming = new BatteryMessage();
+    private final BatteryMessage mState = new BatteryMessage();
+    private long mStateTime = -1;
+
+    private volatile long mRequestCount;
+    private volatile long mCacheHitCount;
+    private volatile long mPushCount;
+
+    public PhoneBatterySync(StateSource source, Outbox outbox, BatteryPushPolicy policy,
+            long replyCacheMs) {
+        mSource = source;
+        mOutbox = outbox;
+        mPolicy = policy;
+        mReplyCacheMs = replyCacheMs;
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Handles a message from the watch. Returns true if it was a request, which was answered.
+     */
+    public boolean onMessage(byte[] data, long now) {
+        return BatteryCodec.decode(data, mIncoming) && onMessage(mIncoming, now);
+    }
+
+    /**
+     * As {@link #onMessage(byte[], long)}, for a message the caller has already decoded.
+     */
+    public boolean onMessage(BatteryMessage message, long now) {
+        if (message.type != BatteryMessage.TYPE_REQUEST) {
+            return false;
+        }
+        mRequestCount++;
+        boolean fresh = mStateTime < 0 || now < mStateTime || now - mStateTime >= mReplyCacheMs;
+        if (fresh) {
+            read(now);
+        } else {
+            mCacheHitCount++;
+        }
+        mState.requestId = message.requestId;
+        mOutbox.offer(SyncConnection.SLOT_STATE, BatteryCodec.encode(mState));
+        mState.requestId = RequestTracker.NONE;
+        if (fresh) {
+            sent();
+        }
+        return true;
+    }
+
+    /**
+     * Reads the battery and pushes the state if the policy wants it. Returns true if it did.
+     */
+    public boolean onBatteryChanged(long now) {
+        BatteryMessage state = read(now);
+        if (!mPolicy.shouldPush(state.percent(), state.charging, now)) {
+            return false;
+        }
+        mPushCount++;
+        mOutbox.offer(SyncConnection.SLOT_STATE, BatteryCodec.encode(state));
+        sent();
+        return true;
+    }
+
+    private BatteryMessage read(long now) {
+        mSource.read(mState);
+        mState.type = BatteryMessage.TYPE_STATE;
+        mState.requestId = RequestTracker.NONE;
+        mStateTime = now;
+        return mState;
+    }
+
+    private void sent() {
+        mPolicy.pushed(mState.percent(), mState.charging, mState.timestamp);
+        if (mListener != null) {
+            mListener.onStateSent(mState.percent(), mState.charging, mState.timestamp);
+        }
+    }
+
+    public long getRequestCount() {
+        return mRequestCount;
+    }
+
+    /**
+     * Requests answered without reading the battery.
+     */
+    public long getCacheHitCount() {
+        return mCacheHitCount;
+    }
+
+    /**
+     * States sent without being asked.
+     */
+    public long getPushCount() {
+        return mPushCount;
+    }
+
+    @Override
+    public String toString() {
+        return "PhoneBatterySync{requests=" + mRequestCount + ", cacheHits=" + mCacheHitCount
+                + ", pushes=" + mPushCount + "}";
+    }
+}
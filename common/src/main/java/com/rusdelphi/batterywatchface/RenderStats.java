@@ -0,0 +1,124 @@
+package com.rusdelphi.batterywatchface;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+
+/**
+ * Draw-time histograms per section of a frame plus frame counts per mode. Recording is a few
+ * array updates and never allocates, so it can stay enabled in release builds.
+ * <p>
+ * Two more sections hold each engine's startup: the time from its creation to its first frame,
+ * and to its first frame drawn with all paints and icons.
+ * <p>
+ * Durations go into power-of-two nanosecond buckets, so percentiles are reported as the upper
+ * bound of their bucket. Record from the render thread only; {@link #dump} may run on another
+ * thread and then sees a slightly inconsistent but harmless snapshot.
+ */
+public class RenderStats {
+    public static final int SECTION_FRAME = 0;
+    public static final int SECTION_BACKGROUND = 1;
+    public static final int SECTION_DIAL = 2;
+    public static final int SECTION_TIME = 3;
+    public static final int SECTION_SECONDS = 4;
+    public static final int SECTION_BATTERY = 5;
+    public static final int SECTION_AMBIENT = 6;
+    public static final int SECTION_STARTUP_FIRST = 7;
+    public static final int SECTION_STARTUP_FULL = 8;
+    private static final String[] SECTION_NAMES = {
+            "frame", "background", "dial", "time", "seconds", "battery", "ambient",
+            "start_1st", "start_full"};
+    public static final int SECTION_COUNT = SECTION_NAMES.length;
+
+    public static final int MODE_INTERACTIVE = 0;
+    public static final int MODE_AMBIENT = 1;
+    public static final int MODE_ROUND = 2;
+    public static final int MODE_SQUARE = 3;
+    private static final String[] MODE_NAMES = {"interactive", "ambient", "round", "square"};
+
+    private static final int BUCKET_COUNT = 40;
+
+    private final long[][] mBuckets = new long[SECTION_COUNT][BUCKET_COUNT];
+    private final long[] mCounts = new long[SECTION_COUNT];
+    private final long[] mTotals = new long[SECTION_COUNT];
+    private final long[] mMax = new long[SECTION_COUNT];
+    private final long[] mLast = new long[SECTION_COUNT];
+    private final long[] mFrames = new long[MODE_NAMES.length];
+
+    public void record(int section, long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        int bucket = 64 - Long.numberOfLeadingZeros(nanos);
+        mBuckets[section][bucket < BUCKET_COUNT ? bucket : BUCKET_COUNT - 1]++;
+        mCounts[section]++;
+        mTotals[section] += nanos;
+        mLast[section] = nanos;
+        if (nanos > mMax[section]) {
+            mMax[section] = nanos;
+        }
+    }
+
+    public void countFrame(int mode) {
+        mFrames[mode]++;
+    }
+
+    public long getFrameCount(int mode) {
+        return mFrames[mode];
+    }
+
+    public long getLast(int section) {
+        return mLast[section];
+    }
+
+    /**
+     * Upper bound in nanoseconds of the bucket holding the given percentile (0..100), or 0 if
+     * nothing was recorded.
+     */
+    public long percentile(int section, int percentile) {
+        long count = mCounts[section];
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (count * percentile + 99) / 100;
+        long seen = 0;
+        long[] buckets = mBuckets[section];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += buckets[i];
+            if (seen >= rank && seen > 0) {
+                return i == 0 ? 0 : 1L << i;
+            }
+        }
+        return mMax[section];
+    }
+
+    public void reset() {
+        for (int i = 0; i < SECTION_COUNT; i++) {
+            Arrays.fill(mBuckets[i], 0);
+        }
+        Arrays.fill(mCounts, 0);
+        Arrays.fill(mTotals, 0);
+        Arrays.fill(mMax, 0);
+        Arrays.fill(mLast, 0);
+        Arrays.fill(mFrames, 0);
+    }
+
+    public void dump(PrintWriter writer) {
+        writer.print("frames:");
+        for (int i = 0; i < MODE_NAMES.length; i++) {
+            writer.print(' ');
+            writer.print(MODE_NAMES[i]);
+            writer.print('=');
+            writer.print(mFrames[i]);
+        }
+        writer.println();
+        writer.println("section     count    avg_us   p50_us   p90_us   p99_us   max_us");
+        for (int i = 0; i < SECTION_COUNT; i++) {
+            long count = mCounts[i];
+            writer.println(String.format("%-10s %6d %9.1f %8.1f %8.1f %8.1f %8.1f",
+                    SECTION_NAMES[i], count,
+                    count == 0 ? 0 : mTotals[i] / 1000.0 / count,
+                    percentile(i, 50) / 1000.0, percentile(i, 90) / 1000.0,
+                    percentile(i, 99) / 1000.0, mMax[i] / 1000.0));
+        }
+    }
+}
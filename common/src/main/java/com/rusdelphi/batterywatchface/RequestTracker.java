@@ -0,0 +1,156 @@
+package com.rusdelphi.batterywatchface;
+
+import java.util.Random;
+
+/**
+ * Hands out ids for requests to the other device and matches the replies to them.
+ * <p>
+ * Only one request is in flight at a time: {@link #begin} returns {@link #NONE} while an earlier
+ * one is waiting for its answer, so a burst of triggers sends one request. A request not answered
+ * within {@code timeoutMs} is given up and the next {@link #begin} starts a new one; its answer,
+ * if it still comes, is counted as late. Round-trip times of matched replies are kept for
+ * {@code dumpsys}. Times are in milliseconds of a monotonic clock.
+ */
+public class RequestTracker {
+    /**
+     * Not a request id: no request was started, or a message doesn't answer one.
+     */
+    public static final int NONE = 0;
+
+    private static final int MAX_ID = 0xffff;
+
+    private final long mTimeoutMs;
+    private int mNextId;
+    private int mInFlightId = NONE;
+    private long mInFlightSince;
+    private int mLastId = NONE;
+
+    private long mStartedCount;
+    private long mDeduplicatedCount;
+    private long mCompletedCount;
+    private long mTimeoutCount;
+    private long mLateCount;
+    private long mLastRttMs = -1;
+    private long mMinRttMs = -1;
+    private long mMaxRttMs = -1;
+    private long mTotalRttMs;
+
+    public RequestTracker(long timeoutMs) {
+        mTimeoutMs = timeoutMs;
+        // Don't reuse the ids of an earlier process, its answers may still be on their way.
+        mNextId = 1 + new Random().nextInt(MAX_ID);
+    }
+
+    /**
+     * Starts a request at {@code now} and returns its id, or {@link #NONE} if one is in flight.
+     */
+    public synchronized int begin(long now) {
+        expire(now);
+        if (mInFlightId != NONE) {
+            mDeduplicatedCount++;
+            return NONE;
+        }
+        mInFlightId = mNextId;
+        mInFlightSince = now;
+        mNextId = mNextId == MAX_ID ? 1 : mNextId + 1;
+        mStartedCount++;
+        return mInFlightId;
+    }
+
+    /**
+     * Matches a reply to request {@code id} received at {@code now}. Returns the round-trip time,
+     * or -1 if the reply doesn't answer the request in flight.
+     */
+    public synchronized long complete(int id, long now) {
+        if (id == NONE) {
+            return -1;
+        }
+        expire(now);
+        if (id != mInFlightId) {
+            if (id == mLastId) {
+                mLateCount++;
+            }
+            return -1;
+        }
+        long rtt = Math.max(0, now - mInFlightSince);
+        mInFlightId = NONE;
+        mCompletedCount++;
+        mLastRttMs = rtt;
+        mMinRttMs = mMinRttMs < 0 ? rtt : Math.min(mMinRttMs, rtt);
+        mMaxRttMs = Math.max(mMaxRttMs, rtt);
+        mTotalRttMs += rtt;
+        return rtt;
+    }
+
+    private void expire(long now) {
+        if (mInFlightId != NONE && now - mInFlightSince >= mTimeoutMs) {
+            mLastId = mInFlightId;
+            mInFlightId = NONE;
+            mTimeoutCount++;
+        }
+    }
+
+    /**
+     * Id of the request waiting for an answer, {@link #NONE} if there is none.
+     */
+    public synchronized int getInFlightId() {
+        return mInFlightId;
+    }
+
+    public synchronized long getStartedCount() {
+        return mStartedCount;
+    }
+
+    /**
+     * Requests not sent because another one was in flight.
+     */
+    public synchronized long getDeduplicatedCount() {
+        return mDeduplicatedCount;
+    }
+
+    public synchronized long getCompletedCount() {
+        return mCompletedCount;
+    }
+
+    public synchronized long getTimeoutCount() {
+        return mTimeoutCount;
+    }
+
+    /**
+     * Replies that arrived after their request timed out.
+     */
+    public synchronized long getLateCount() {
+        return mLateCount;
+    }
+
+    /**
+     * Round-trip time of the last answered request, -1 if none was.
+     */
+    public synchronized long getLastRttMs() {
+        return mLastRttMs;
+    }
+
+    public synchronized long getMinRttMs() {
+        return mMinRttMs;
+    }
+
+    public synchronized long getMaxRttMs() {
+        return mMaxRttMs;
+    }
+
+    /**
+     * Mean round-trip time of the answered requests, -1 if none was.
+     */
+    public synchronized long getMeanRttMs() {
+        return mCompletedCount == 0 ? -1 : mTotalRttMs / mCompletedCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "RequestTracker{inFlight=" + mInFlightId + ", started=" + mStartedCount
+                + ", deduplicated=" + mDeduplicatedCount + ", completed=" + mCompletedCount
+                + ", timeouts=" + mTimeoutCount + ", late=" + mLateCount
+                + ", rttLast=" + mLastRttMs + "ms, rttMin=" + mMinRttMs
+                + "ms, rttMean=" + getMeanRttMs() + "ms, rttMax=" + mMaxRttMs + "ms}";
+    }
+}
@@ -0,0 +1,280 @@
+package com.rusdelphi.batterywatchface;
+
+/**
+ * Sends battery updates to the other device from one worker thread, connecting as needed.
+ * <p>
+ * The queue holds one payload per slot and a newer payload replaces an unsent one, so it never
+ * grows and what goes out after an outage is the latest state, not the history. Failed connects
+ * and sends are retried after a delay from their own {@link Backoff}: a send that fails while
+ * connected doesn't reconnect or count as a connect attempt, and a connect that succeeds doesn't
+ * shorten the delay after failed sends. {@link #onReconnected} cuts both short when the platform
+ * reports the peer is back.
+ */
+public class SyncConnection implements Outbox {
+    /**
+     * The blocking operations the worker runs.
+     */
+    public interface Endpoint {
+        /**
+         * Returns once connected, or false if that failed. Called before every send, so it should
+         * return quickly when already connected.
+         */
+        boolean connect();
+
+        /**
+         * Delivers {@code data} for {@code slot}, returns false if it didn't reach the peer. A
+         * retry passes the same array, so an endpoint with several peers can skip those that
+         * already have it, see {@link NodeFanout#send}.
+         */
+        boolean send(int slot, byte[] data);
+    }
+
+    public static final int SLOT_STATE = 0;
+    public static final int SLOT_REQUEST = 1;
+    public static final int SLOT_PUBLISH = 2;
+    public static final int SLOT_COUNT = 3;
+
+    public static final int STATE_IDLE = 0;
+    public static final int STATE_CONNECTING = 1;
+    public static final int STATE_CONNECTED = 2;
+    public static final int STATE_BACKOFF = 3;
+    public static final int STATE_STOPPED = 4;
+
+    private static final String[] STATE_NAMES = {"idle", "connecting", "connected", "backoff",
+            "stopped"};
+
+    private final Endpoint mEndpoint;
+    private final Backoff mConnectBackoff;
+    private final Backoff mSendBackoff;
+    private final Object mLock = new Object();
+    private final byte[][] mPending = new byte[SLOT_COUNT][];
+    private int mPendingCount;
+    private long mRetryAt;
+    /**
+     * Whether the last connect succeeded and no connect failed since. Worker thread only.
+     */
+    private boolean mConnected;
+    private volatile int mState = STATE_IDLE;
+    private volatile boolean mStopped;
+    private Thread mWorker;
+
+    private volatile long mOfferedCount;
+    private volatile long mCollapsedCount;
+    private volatile long mSentCount;
+    private volatile long mSendFailureCount;
+    private volatile long mConnectAttemptCount;
+    private volatile long mConnectFailureCount;
+    private volatile long mLastSentTime;
+    private volatile long mLastFailureTime;
+
+    public SyncConnection(Endpoint endpoint, Backoff connectBackoff, Backoff sendBackoff) {
+        mEndpoint = endpoint;
+        mConnectBackoff = connectBackoff;
+        mSendBackoff = sendBackoff;
+    }
+
+    public void start() {
+        synchronized (mLock) {
+            if (mWorker != null) {
+                return;
+            }
+            mStopped = false;
+            mState = STATE_IDLE;
+            mWorker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    work();
+                }
+            }, "SyncConnection");
+            mWorker.start();
+        }
+    }
+
+    /**
+     * Stops the worker; unsent payloads are dropped.
+     */
+    public void stop() {
+        Thread worker;
+        synchronized (mLock) {
+            worker = mWorker;
+            mWorker = null;
+            mStopped = true;
+            mState = STATE_STOPPED;
+            mLock.notifyAll();
+        }
+        if (worker != null) {
+            worker.interrupt();
+        }
+    }
+
+    /**
+     * Queues {@code data} for {@code slot}, replacing a payload not sent yet. Doesn't block.
+     */
+    @Override
+    public void offer(int slot, byte[] data) {
+        synchronized (mLock) {
+            mOfferedCount++;
+            if (mPending[slot] != null) {
+                mCollapsedCount++;
+            } else {
+                mPendingCount++;
+            }
+            mPending[slot] = data;
+            mLock.notifyAll();
+        }
+    }
+
+    /**
+     * The connection or the peer came back: flush now instead of waiting out the backoff.
+     */
+    public void onReconnected() {
+        synchronized (mLock) {
+            mConnectBackoff.reset();
+            mSendBackoff.reset();
+            mRetryAt = 0;
+            mLock.notifyAll();
+        }
+    }
+
+    private void work() {
+        while (true) {
+            int slot;
+            byte[] data;
+            synchronized (mLock) {
+                while (true) {
+                    if (mStopped) {
+                        return;
+                    }
+                    long wait = mPendingCount == 0 ? 0 : mRetryAt - now();
+                    if (mPendingCount > 0 && wait <= 0) {
+                        break;
+                    }
+                    try {
+                        mLock.wait(Math.max(0, wait));
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                slot = firstPendingSlot();
+                data = mPending[slot];
+            }
+            boolean wasConnected = mConnected;
+            if (!wasConnected) {
+                mState = STATE_CONNECTING;
+            }
+            if (!mEndpoint.connect()) {
+                // A connection that dropped since the last send counts as an attempt too.
+                mConnected = false;
+                mConnectAttemptCount++;
+                mConnectFailureCount++;
+                retryLater(mConnectBackoff);
+                continue;
+            }
+            if (!wasConnected) {
+                mConnectAttemptCount++;
+                mConnected = true;
+                synchronized (mLock) {
+                    mConnectBackoff.reset();
+                }
+            }
+            mState = STATE_CONNECTED;
+            boolean sent = mEndpoint.send(slot, data);
+            synchronized (mLock) {
+                if (sent) {
+                    // Keep a payload offered while this one was on its way.
+                    if (mPending[slot] == data) {
+                        mPending[slot] = null;
+                        mPendingCount--;
+                    }
+                    mSendBackoff.reset();
+                    mSentCount++;
+                    mLastSentTime = System.currentTimeMillis();
+                    continue;
+                }
+            }
+            mSendFailureCount++;
+            retryLater(mSendBackoff);
+        }
+    }
+
+    private void retryLater(Backoff backoff) {
+        synchronized (mLock) {
+            if (mStopped) {
+                return;
+            }
+            mState = STATE_BACKOFF;
+            mLastFailureTime = System.currentTimeMillis();
+            mRetryAt = now() + backoff.nextDelayMs();
+        }
+    }
+
+    private int firstPendingSlot() {
+        for (int i = 0; i < SLOT_COUNT; i++) {
+            if (mPending[i] != null) {
+                return i;
+            }
+        }
+        throw new IllegalStateException("nothing pending");
+    }
+
+    private static long now() {
+        return System.nanoTime() / 1000000;
+    }
+
+    public int getState() {
+        return mState;
+    }
+
+    public int getPendingCount() {
+        synchronized (mLock) {
+            return mPendingCount;
+        }
+    }
+
+    public long getOfferedCount() {
+        return mOfferedCount;
+    }
+
+    /**
+     * Payloads replaced by a newer one before they were sent.
+     */
+    public long getCollapsedCount() {
+        return mCollapsedCount;
+    }
+
+    public long getSentCount() {
+        return mSentCount;
+    }
+
+    public long getSendFailureCount() {
+        return mSendFailureCount;
+    }
+
+    public long getConnectAttemptCount() {
+        return mConnectAttemptCount;
+    }
+
+    public long getConnectFailureCount() {
+        return mConnectFailureCount;
+    }
+
+    /**
+     * Wall clock time of the last successful send, 0 if none.
+     */
+    public long getLastSentTime() {
+        return mLastSentTime;
+    }
+
+    public long getLastFailureTime() {
+        return mLastFailureTime;
+    }
+
+    @Override
+    public String toString() {
+        return "SyncConnection{state=" + STATE_NAMES[mState] + ", pending=" + getPendingCount()
+                + ", offered=" + mOfferedCount + ", collapsed=" + mCollapsedCount
+                + ", sent=" + mSentCount + ", sendFailures=" + mSendFailureCount
+                + ", connects=" + mConnectAttemptCount + ", connectFailures=" + mConnectFailureCount
+                + ", lastSent=" + mLastSentTime + ", lastFailure=" + mLastFailureTime + "}";
+    }
+}
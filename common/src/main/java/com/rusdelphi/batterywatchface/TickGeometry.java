@@ -0,0 +1,72 @@
+package com.rusdelphi.batterywatchface;
+
+/**
+ * Endpoints of the 59 second ticks (1..59) laid out for {@code Canvas.drawLines}: tick {@code i}
+ * occupies {@code pts[(i - 1) * 4] .. pts[(i - 1) * 4 + 3]} as startX, startY, stopX, stopY.
+ */
+public final class TickGeometry {
+    public static final int TICK_COUNT = 59;
+    public static final int POINTS_SIZE = TICK_COUNT * 4;
+
+    private TickGeometry() {
+    }
+
+    /**
+     * Returns the offset of {@code tickIndex} in an array filled by this class.
+     */
+    public static int offsetOf(int tickIndex) {
+        return (tickIndex - 1) * 4;
+    }
+
+    /**
+     * Ticks {@code length} long running clockwise around the edges of a square face, starting at
+     * the top center.
+     */
+    public static void fillSquare(float[] pts, int w, int h, float length) {
+        float centerX = w / 2f;
+        float step = w / 16;
+        for (int tickIndex = 1; tickIndex < 60; tickIndex++) {
+            int i = offsetOf(tickIndex);
+            if (tickIndex < 8) {
+                set(pts, i, centerX + tickIndex * step, 0, centerX + tickIndex * step, length);
+            } else if (tickIndex < 23) {
+                float y = step + (tickIndex - 8) * step;
+                set(pts, i, w, y, w - length, y);
+            } else if (tickIndex < 38) {
+                float x = w - (step + (tickIndex - 23) * step);
+                set(pts, i, x, h, x, h - length);
+            } else if (tickIndex < 53) {
+                float y = step + (tickIndex - 38) * step;
+                set(pts, i, 0, y, length, y);
+            } else {
+                float x = step + (tickIndex - 53) * step;
+                set(pts, i, x, 0, x, length);
+            }
+        }
+    }
+
+    /**
+     * Radial ticks {@code length} long on the edge of a round face.
+     */
+    public static void fillRound(float[] pts, int width, int height, float length) {
+        float centerX = width / 2f;
+        float centerY = height / 2f;
+        float innerTickRadius = centerX - length;
+        float outerTickRadius = centerX;
+        for (int tickIndex = 1; tickIndex < 60; tickIndex++) {
+            double tickRot = tickIndex * Math.PI * 2 / 60;
+            float sin = (float) Math.sin(tickRot);
+            float cos = (float) -Math.cos(tickRot);
+            set(pts, offsetOf(tickIndex),
+                    centerX + sin * innerTickRadius, centerY + cos * innerTickRadius,
+                    centerX + sin * outerTickRadius, centerY + cos * outerTickRadius);
+        }
+    }
+
+    private static void set(float[] pts, int i, float x0, float y0, float x1, float y1) {
+        pts[i] = x0;
+        pts[i + 1] = y0;
+        pts[i + 2] = x1;
+        pts[i + 3] = y1;
+    }
+}
@@ -0,0 +1,68 @@
+package com.rusdelphi.batterywatchface;
+
+/**
+ * Widths of every hour and minute text in one paint, measured once so that centering the time
+ * is a table lookup. The width of a whole time is the hour part plus the minute part, exact for
+ * monospace fonts and off by at most the kerning between the two parts for the others.
+ */
+public final class TimeTextWidths {
+    private final int mPaint;
+    private final String[] mHourTexts;
+    private final String[] mMinuteTexts;
+    private final float[] mHours = new float[24];
+    private final float[] mMinutes = new float[60];
+    private boolean mValid;
+
+    /**
+     * @param hourTexts   texts for hours 0..23
+     * @param minuteTexts texts for minutes 0..59, or null if only hours are measured
+     */
+    public TimeTextWidths(int paint, String[] hourTexts, String[] minuteTexts) {
+        mPaint = paint;
+        mHourTexts = hourTexts;
+        mMinuteTexts = minuteTexts;
+    }
+
+    /**
+     * Measures again on the next {@link #measure}, e.g. after the paint's size or typeface changed.
+     */
+    public void invalidate() {
+        mValid = false;
+    }
+
+    public boolean isValid() {
+        return mValid;
+    }
+
+    /**
+     * Fills the tables from {@code canvas}'s paint, unless they are still valid.
+     */
+    public void measure(FaceCanvas canvas) {
+        if (mValid) {
+            return;
+        }
+        for (int i = 0; i < mHours.length; i++) {
+            String text = mHourTexts[i];
+            mHours[i] = canvas.measureText(text, 0, text.length(), mPaint);
+        }
+        if (mMinuteTexts != null) {
+            for (int i = 0; i < mMinutes.length; i++) {
+                String text = mMinuteTexts[i];
+                mMinutes[i] = canvas.measureText(text, 0, text.length(), mPaint);
+            }
+        }
+        mValid = true;
+    }
+
+    public float hour(int hour) {
+        return mHours[hour];
+    }
+
+    public float minute(int minute) {
+        return mMinutes[minute];
+    }
+
+    public float time(int hour, int minute) {
+        return mHours[hour] + mMinutes[minute];
+    }
+}
@@ -0,0 +1,133 @@
+package com.rusdelphi.batterywatchface;
+
+/**
+ * Watch side of the battery sync: sends the watch's state when the {@link BatterySyncScheduler}
+ * says so, asks for the phone's when it is unknown or older than {@code requestAfterMs}, and
+ * stores what each phone sends in {@link PeerBatteryStates}; the primary one is also the
+ * {@link BatteryState} phone. Sends through an {@link Outbox}, so the
+ * same logic runs in the face and against a {@code LoopbackNetwork}.
+ * <p>
+ * Not thread-safe. {@code now} arguments are monotonic milliseconds, {@code wallNow} wall clock
+ * ones.
+ */
+public class WatchBatterySync {
+    private final Outbox mOutbox;
+    private final BatteryState mState;
+    private final PeerBatteryStates mPeers;
+    private final RequestTracker mRequests;
+    private final BatterySyncScheduler mScheduler;
+    private final long mRequestAfterMs;
+    private final boolean mViaDataItems;
+
+    private final BatteryMessage mOwn = new BatteryMessage();
+    private final BatteryMessage mIncoming = new BatteryMessage();
+    private final BatteryMessage mRequest = new BatteryMessage();
+
+    /**
+     * @param viaDataItems publish the state as a data item instead of sending messages; the
+     *                     phone answers with its own item, so no requests are sent
+     */
+    public WatchBatterySync(Outbox outbox, BatteryState state, PeerBatteryStates peers,
+            RequestTracker requests, BatterySyncScheduler scheduler, long requestAfterMs,
+            boolean viaDataItems) {
+        mOutbox = outbox;
+        mState = state;
+        mPeers = peers;
+        mRequests = requests;
+        mScheduler = scheduler;
+        mRequestAfterMs = requestAfterMs;
+        mViaDataItems = viaDataItems;
+        mRequest.type = BatteryMessage.TYPE_REQUEST;
+    }
+
+    /**
+     * Records the watch's own state. Returns the delay after which {@link #sync} should run, or
+     * {@link BatterySyncScheduler#NOTHING_PENDING}.
+     */
+    public long onBatteryChanged(BatteryMessage state, long now) {
+        mOwn.set(state);
+        mOwn.type = BatteryMessage.TYPE_STATE;
+        mOwn.requestId = RequestTracker.NONE;
+        int percent = mOwn.percent();
+        mState.set(BatteryState.DEVICE_WATCH, percent, mOwn.charging, mOwn.timestamp);
+        // ACTION_BATTERY_CHANGED also fires for voltage and temperature changes, only real
+        // changes reach the phone.
+        return mScheduler.offer(percent, mOwn.charging, now);
+    }
+
+    /**
+     * Sends what is due. Returns the delay after which to call it again, or
+     * {@link BatterySyncScheduler#NOTHING_PENDING}.
+     */
+    public long sync(long now, long wallNow) {
+        if (!mScheduler.poll(now)) {
+            return mScheduler.delayUntilDue(now);
+        }
+        if (mViaDataItems) {
+            mOutbox.offer(SyncConnection.SLOT_PUBLISH, BatteryCodec.encode(mOwn));
+            return BatterySyncScheduler.NOTHING_PENDING;
+        }
+        mOutbox.offer(SyncConnection.SLOT_STATE, BatteryCodec.encode(mOwn));
+        long phone = mState.get(BatteryState.DEVICE_PHONE);
+        if (!BatteryState.isKnown(phone)
+                || BatteryState.isStale(phone, wallNow, mRequestAfterMs)) {
+            int requestId = mRequests.begin(now);
+            if (requestId != RequestTracker.NONE) {
+                mRequest.requestId = requestId;
+                mOutbox.offer(SyncConnection.SLOT_REQUEST, BatteryCodec.encode(mRequest));
+            }
+        }
+        return BatterySyncScheduler.NOTHING_PENDING;
+    }
+
+    /**
+     * Handles an encoded message from node {@code nodeId}. Returns true if it was the primary
+     * phone's state, false for another phone's or if it isn't valid.
+     */
+    public boolean onMessage(String nodeId, byte[] data, long now, long wallNow) {
+        return BatteryCodec.decode(data, mIncoming) && onMessage(nodeId, mIncoming, now, wallNow);
+    }
+
+    /**
+     * As {@link #onMessage(String, byte[], long, long)}, for a message the caller has already
+     * decoded. Phones never ask the watch for its state, anything but a state is ignored.
+     */
+    public boolean onMessage(String nodeId, BatteryMessage message, long now, long wallNow) {
+        if (message.type != BatteryMessage.TYPE_STATE) {
+            return false;
+        }
+        return onPhoneState(nodeId, message.requestId, message.percent(), message.charging,
+                message.timestamp, now, wallNow);
+    }
+
+    /**
+     * Stores a phone's state and matches it to the request it answers, if any. Returns true if
+     * the phone is the primary one.
+     */
+    public boolean onPhoneState(String nodeId, int requestId, int percent, boolean charging,
+            long timestamp, long now, long wallNow) {
+        return storePhoneState(mState, mPeers, mRequests, nodeId, requestId, percent, charging,
+                timestamp, now, wallNow);
+    }
+
+    /**
+     * {@link #onPhoneState} for callers that receive phone states without sending anything.
+     */
+    public static boolean storePhoneState(BatteryState state, PeerBatteryStates peers,
+            RequestTracker requests, String nodeId, int requestId, int percent, boolean charging,
+            long timestamp, long now, long wallNow) {
+        requests.complete(requestId, now);
+        boolean primary = peers.set(nodeId, percent, charging, timestamp, wallNow);
+        // Any update may change which node is the secondary, including a new primary.
+        state.set(BatteryState.DEVICE_OTHER_PHONE, peers.getSecondary());
+        if (!primary) {
+            return false;
+        }
+        state.set(BatteryState.DEVICE_PHONE, percent, charging, timestamp);
+        return true;
+    }
+
+    public BatterySyncScheduler getScheduler() {
+        return mScheduler;
+    }
+}
@@ -0,0 +1,40 @@
+package com.rusdelphi.batterywatchface;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Bytes allocated by the current thread, from the HotSpot per-thread allocation counter. Reading
+ * the counter may allocate itself and the JIT occasionally adds a few bytes to a run, so
+ * {@link #measure} subtracts the former and returns the least of several runs.
+ */
+final class AllocationCounter {
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private AllocationCounter() {
+    }
+
+    static long allocatedBytes() {
+        return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static final int RUNS = 5;
+
+    /**
+     * Bytes allocated by running {@code task} {@code count} times on this thread, the least of
+     * {@link #RUNS} runs.
+     */
+    static long measure(Runnable task, int count) {
+        long least = Long.MAX_VALUE;
+        for (int run = 0; run < RUNS; run++) {
+            long before = allocatedBytes();
+            long overhead = allocatedBytes() - before;
+            long start = allocatedBytes();
+            for (int i = 0; i < count; i++) {
+                task.run();
+            }
+            least = Math.min(least, allocatedBytes() - start - overhead);
+        }
+        return Math.max(0, least);
+    }
+}
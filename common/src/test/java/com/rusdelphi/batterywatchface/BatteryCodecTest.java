@@ -0,0 +1,208 @@
+package com.rusdelphi.batterywatchface;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BatteryCodecTest {
+    private static final long TIMESTAMP = 1500000000000L;
+
+    private final BatteryMessage mMessage = new BatteryMessage();
+    private final BatteryMessage mDecoded = new BatteryMessage();
+
+    @Before
+    public void setUp() {
+        mMessage.type = BatteryMessage.TYPE_STATE;
+        mMessage.level = 57;
+        mMessage.scale = 100;
+        mMessage.charging = true;
+        mMessage.plugged = BatteryMessage.PLUGGED_WIRELESS;
+        mMessage.temperature = -125;
+        mMessage.voltage = 4123;
+        mMessage.timestamp = TIMESTAMP + 999;
+        mMessage.requestId = 0xfffe;
+    }
+
+    private BatteryMessage roundTrip(BatteryMessage message) {
+        mDecoded.clear();
+        assertTrue(BatteryCodec.decode(BatteryCodec.encode(message), mDecoded));
+        return mDecoded;
+    }
+
+    @Test
+    public void stateRoundTrip() {
+        byte[] encoded = BatteryCodec.encode(mMessage);
+        assertEquals(BatteryCodec.STATE_SIZE, encoded.length);
+        assertEquals(BatteryMessage.TYPE_STATE, BatteryCodec.peekType(encoded));
+        BatteryMessage decoded = roundTrip(mMessage);
+        assertEquals(BatteryMessage.TYPE_STATE, decoded.type);
+        assertEquals(57, decoded.level);
+        assertEquals(100, decoded.scale);
+        assertTrue(decoded.charging);
+        assertEquals(BatteryMessage.PLUGGED_WIRELESS, decoded.plugged);
+        assertEquals(-125, decoded.temperature);
+        assertEquals(4123, decoded.voltage);
+        // Sent with a precision of one second.
+        assertEquals(TIMESTAMP, decoded.timestamp);
+        assertEquals(0xfffe, decoded.requestId);
+    }
+
+    @Test
+    public void requestRoundTrip() {
+        BatteryMessage request = new BatteryMessage();
+        request.type = BatteryMessage.TYPE_REQUEST;
+        request.requestId = 4711;
+        byte[] encoded = BatteryCodec.encode(request);
+        assertEquals(BatteryCodec.REQUEST_SIZE, encoded.length);
+        assertEquals(BatteryMessage.TYPE_REQUEST, BatteryCodec.peekType(encoded));
+        BatteryMessage decoded = roundTrip(request);
+        assertEquals(BatteryMessage.TYPE_REQUEST, decoded.type);
+        assertEquals(4711, decoded.requestId);
+    }
+
+    @Test
+    public void encodeAtOffset() {
+        byte[] buffer = new byte[3 + BatteryCodec.MAX_SIZE];
+        int length = BatteryCodec.encode(mMessage, buffer, 3);
+        assertEquals(BatteryCodec.STATE_SIZE, length);
+        assertTrue(BatteryCodec.decode(buffer, 3, length, mDecoded));
+        assertEquals(57, mDecoded.level);
+    }
+
+    @Test
+    public void decodesVersion1State() {
+        byte[] v1 = {1, BatteryMessage.TYPE_STATE, 42, 100, 1 | (BatteryMessage.PLUGGED_AC << 1),
+                0x01, 0x2c, 0x10, 0x00, 0x59, 0x68, 0x2f, 0x00};
+        mDecoded.requestId = 99;
+        assertTrue(BatteryCodec.decode(v1, mDecoded));
+        assertEquals(42, mDecoded.percent());
+        assertTrue(mDecoded.charging);
+        assertEquals(BatteryMessage.PLUGGED_AC, mDecoded.plugged);
+        assertEquals(300, mDecoded.temperature);
+        assertEquals(4096, mDecoded.voltage);
+        assertEquals(TIMESTAMP, mDecoded.timestamp);
+        assertEquals(0, mDecoded.requestId);
+    }
+
+    @Test
+    public void decodesVersion1Request() {
+        mDecoded.requestId = 99;
+        assertTrue(BatteryCodec.decode(new byte[]{1, BatteryMessage.TYPE_REQUEST}, mDecoded));
+        assertEquals(BatteryMessage.TYPE_REQUEST, mDecoded.type);
+        assertEquals(0, mDecoded.requestId);
+    }
+
+    @Test
+    public void decodesNewerVersionWithAppendedFields() {
+        byte[] encoded = BatteryCodec.encode(mMessage);
+        byte[] v3 = new byte[encoded.length + 4];
+        System.arraycopy(encoded, 0, v3, 0, encoded.length);
+        v3[0] = 3;
+        assertTrue(BatteryCodec.decode(v3, mDecoded));
+        assertEquals(57, mDecoded.level);
+        assertEquals(0xfffe, mDecoded.requestId);
+    }
+
+    @Test
+    public void rejectsTruncatedState() {
+        byte[] encoded = BatteryCodec.encode(mMessage);
+        for (int length = 0; length < 13; length++) {
+            assertFalse("length " + length, BatteryCodec.decode(encoded, 0, length, mDecoded));
+        }
+        assertFalse(BatteryCodec.decode(null, mDecoded));
+        assertEquals(-1, BatteryCodec.peekType(new byte[]{BatteryCodec.VERSION}));
+    }
+
+    @Test
+    public void rejectsUnknownVersionAndType() {
+        byte[] encoded = BatteryCodec.encode(mMessage);
+        encoded[0] = 0;
+        assertFalse(BatteryCodec.decode(encoded, mDecoded));
+        assertEquals(-1, BatteryCodec.peekType(encoded));
+        encoded[0] = (byte) 0xff;
+        assertFalse(BatteryCodec.decode(encoded, mDecoded));
+        encoded[0] = BatteryCodec.VERSION;
+        encoded[1] = 7;
+        assertFalse(BatteryCodec.decode(encoded, mDecoded));
+    }
+
+    @Test
+    public void levelAndScaleAtByteLimit() {
+        mMessage.level = 255;
+        mMessage.scale = 255;
+        BatteryMessage decoded = roundTrip(mMessage);
+        assertEquals(255, decoded.level);
+        assertEquals(255, decoded.scale);
+        assertEquals(100, decoded.percent());
+    }
+
+    @Test
+    public void largeScaleKeepsPercent() {
+        int[][] cases = {{2048, 4096}, {333, 1000}, {1, 10000}, {9999, 10000}, {0, 256},
+                {256, 256}};
+        for (int[] levelScale : cases) {
+            mMessage.level = levelScale[0];
+            mMessage.scale = levelScale[1];
+            int percent = mMessage.percent();
+            assertEquals(levelScale[0] + "/" + levelScale[1], percent, roundTrip(mMessage).percent());
+        }
+    }
+
+    @Test
+    public void unknownLevelStaysUnknown() {
+        mMessage.level = -1;
+        mMessage.scale = -1;
+        assertEquals(-1, roundTrip(mMessage).percent());
+        mMessage.scale = 1000;
+        assertEquals(-1, roundTrip(mMessage).percent());
+    }
+
+    @Test
+    public void clampsOutOfRangeFields() {
+        mMessage.level = 300;
+        mMessage.scale = 200;
+        mMessage.temperature = -40000;
+        mMessage.voltage = 70000;
+        mMessage.plugged = 0xff;
+        BatteryMessage decoded = roundTrip(mMessage);
+        assertEquals(255, decoded.level);
+        assertEquals(Short.MIN_VALUE, decoded.temperature);
+        assertEquals(0xffff, decoded.voltage);
+        assertEquals(0x7, decoded.plugged);
+        mMessage.temperature = 40000;
+        mMessage.voltage = -5;
+        decoded = roundTrip(mMessage);
+        assertEquals(Short.MAX_VALUE, decoded.temperature);
+        assertEquals(0, decoded.voltage);
+    }
+
+    /**
+     * Not a benchmark, see BatteryCodecBenchmark for numbers; only catches an encode and decode
+     * pair that got orders of magnitude slower or started to allocate.
+     */
+    @Test
+    public void throughput() {
+        final byte[] buffer = new byte[BatteryCodec.MAX_SIZE];
+        Runnable roundTrip = new Runnable() {
+            @Override
+            public void run() {
+                mMessage.level = (mMessage.level + 1) & 0x7f;
+                int length = BatteryCodec.encode(mMessage, buffer, 0);
+                BatteryCodec.decode(buffer, 0, length, mDecoded);
+            }
+        };
+        int count = 1000000;
+        AllocationCounter.measure(roundTrip, count);
+        long start = System.nanoTime();
+        assertEquals(0, AllocationCounter.measure(roundTrip, count));
+        long elapsed = System.nanoTime() - start;
+        // AllocationCounter runs the loop several times.
+        assertTrue("took " + TimeUnit.NANOSECONDS.toMillis(elapsed) + " ms",
+                elapsed < TimeUnit.SECONDS.toNanos(5));
+    }
+}
@@ -0,0 +1,230 @@
+package com.rusdelphi.batterywatchface;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Replays the battery traces in {@code src/test/resources/traces} through {@link BatteryEstimator}
+ * the way the face feeds it, and checks each estimate made right after a sample against the time
+ * the trace actually took to reach empty, or full while charging. The traces come from a drain
+ * model described in their headers; a recorded history in the same format can be added next to
+ * them.
+ * <p>
+ * The error limits sit a little above what the estimator achieves now, so the model's own noise
+ * passes and a less accurate estimator fails.
+ */
+public class BatteryEstimatorTest {
+    private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+
+    /**
+     * A trace row: timestamp, percent, charging (0 or 1).
+     */
+    private static List<long[]> loadTrace(String name) throws IOException {
+        InputStream in = BatteryEstimatorTest.class.getResourceAsStream("/traces/" + name);
+        assertNotNull(name, in);
+        List<long[]> rows = new ArrayList<long[]>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split(",");
+                rows.add(new long[]{Long.parseLong(fields[0]), Long.parseLong(fields[1]),
+                        Long.parseLong(fields[2])});
+            }
+        } finally {
+            reader.close();
+        }
+        return rows;
+    }
+
+    /**
+     * Time at which the state of row {@code from} ends at empty (discharging) or first reaches
+     * full (charging), or -1 if it changes before.
+     */
+    private static long endOfState(List<long[]> trace, int from) {
+        boolean charging = trace.get(from)[2] != 0;
+        for (int i = from; i < trace.size(); i++) {
+            long[] row = trace.get(i);
+            if ((row[2] != 0) != charging) {
+                return -1;
+            }
+            if (row[1] == (charging ? 100 : 0)) {
+                return row[0];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Relative errors of the estimates made after the samples between {@code minPercent} and
+     * {@code maxPercent} whose state runs to empty or full, sorted; NaN where there was no
+     * estimate.
+     */
+    private static double[] replay(List<long[]> trace, int minPercent, int maxPercent) {
+        BatteryEstimator estimator = new BatteryEstimator();
+        List<Double> errors = new ArrayList<Double>();
+        for (int i = 0; i < trace.size(); i++) {
+            long[] row = trace.get(i);
+            estimator.add(row[0], (int) row[1], row[2] != 0);
+            long end = endOfState(trace, i);
+            if (end < 0 || row[1] < minPercent || row[1] > maxPercent) {
+                continue;
+            }
+            long estimate = estimator.estimateMillis(row[0]);
+            long actual = end - row[0];
+            errors.add(estimate == BatteryEstimator.UNKNOWN ? Double.NaN
+                    : Math.abs(estimate - actual) / (double) actual);
+        }
+        double[] sorted = new double[errors.size()];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = errors.get(i);
+        }
+        // NaN sorts last, so an unknown estimate counts as the worst error.
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    private static double percentile(double[] sorted, int percentile) {
+        return sorted[Math.min(sorted.length - 1, sorted.length * percentile / 100)];
+    }
+
+    private static void assertAccuracy(String trace, int minPercent, int maxPercent,
+            double median, double p90) throws IOException {
+        double[] errors = replay(loadTrace(trace), minPercent, maxPercent);
+        assertTrue(trace + " has no samples to check", errors.length > 10);
+        assertTrue(trace + " median error " + percentile(errors, 50),
+                percentile(errors, 50) <= median);
+        assertTrue(trace + " p90 error " + percentile(errors, 90), percentile(errors, 90) <= p90);
+    }
+
+    @Test
+    public void watchDischarge() throws IOException {
+        assertAccuracy("watch-discharge.csv", 10, 90, 0.3, 0.6);
+    }
+
+    /**
+     * Day drain with a navigation burst, charging with a taper above 80% and the drain after.
+     */
+    @Test
+    public void phoneDischargeAndCharge() throws IOException {
+        assertAccuracy("phone-cycle.csv", 10, 90, 0.45, 0.7);
+    }
+
+    /**
+     * Unplugged just before a percent change. Averaging the minute up to it as a full percent
+     * overstates the drain for a long time after.
+     */
+    @Test
+    public void watchAfterBriefCharge() throws IOException {
+        assertAccuracy("watch-brief-charge.csv", 10, 62, 0.15, 0.3);
+    }
+
+    @Test
+    public void constantRateIsExact() {
+        BatteryEstimator estimator = new BatteryEstimator();
+        long t = 0;
+        for (int percent = 80; percent >= 75; percent--) {
+            estimator.add(t, percent, false);
+            t += 10 * MINUTE;
+        }
+        long last = t - 10 * MINUTE;
+        assertEquals(75 * 10 * MINUTE, estimator.estimateMillis(last));
+        // Five minutes later, five less.
+        assertEquals(75 * 10 * MINUTE - 5 * MINUTE, estimator.estimateMillis(last + 5 * MINUTE));
+    }
+
+    @Test
+    public void chargingEstimatesTimeToFull() {
+        BatteryEstimator estimator = new BatteryEstimator();
+        for (int i = 0; i <= 3; i++) {
+            estimator.add(i * 2 * MINUTE, 50 + i, true);
+        }
+        assertTrue(estimator.isCharging());
+        assertEquals(47 * 2 * MINUTE, estimator.estimateMillis(6 * MINUTE));
+    }
+
+    @Test
+    public void needsTwoFullIntervals() {
+        BatteryEstimator estimator = new BatteryEstimator();
+        estimator.add(0, 80, false);
+        // Partial: the first sample came at an arbitrary point within 80%.
+        estimator.add(MINUTE, 79, false);
+        estimator.add(11 * MINUTE, 78, false);
+        assertEquals(BatteryEstimator.UNKNOWN, estimator.estimateMillis(11 * MINUTE));
+        estimator.add(21 * MINUTE, 77, false);
+        assertEquals(77 * 10 * MINUTE, estimator.estimateMillis(21 * MINUTE));
+    }
+
+    @Test
+    public void discardsPartialIntervalAfterFlip() {
+        BatteryEstimator estimator = new BatteryEstimator();
+        long t = 0;
+        for (int percent = 60; percent >= 55; percent--) {
+            estimator.add(t, percent, false);
+            t += 10 * MINUTE;
+        }
+        estimator.add(t, 55, true);
+        estimator.add(t + 3 * MINUTE, 56, true);
+        t += 5 * MINUTE;
+        estimator.add(t, 56, false);
+        assertEquals(BatteryEstimator.UNKNOWN, estimator.estimateMillis(t));
+        // The unplug came a minute before the next percent.
+        estimator.add(t + MINUTE, 55, false);
+        estimator.add(t + 11 * MINUTE, 54, false);
+        estimator.add(t + 21 * MINUTE, 53, false);
+        assertEquals(53 * 10 * MINUTE, estimator.estimateMillis(t + 21 * MINUTE));
+    }
+
+    @Test
+    public void restartsWhenTimeGoesBackwards() {
+        BatteryEstimator estimator = new BatteryEstimator();
+        for (int i = 0; i < 4; i++) {
+            estimator.add((100 + i * 10) * MINUTE, 80 - i, false);
+        }
+        estimator.add(50 * MINUTE, 76, false);
+        assertEquals(BatteryEstimator.UNKNOWN, estimator.estimateMillis(50 * MINUTE));
+    }
+
+    /**
+     * Adding a sample and querying are O(1) and allocate nothing, whatever came before.
+     */
+    @Test
+    public void updateCost() throws IOException {
+        final List<long[]> trace = loadTrace("phone-cycle.csv");
+        final BatteryEstimator estimator = new BatteryEstimator();
+        final long[] offset = {0};
+        Runnable replay = new Runnable() {
+            @Override
+            public void run() {
+                long shift = offset[0];
+                for (int i = 0; i < trace.size(); i++) {
+                    long[] row = trace.get(i);
+                    estimator.add(row[0] + shift, (int) row[1], row[2] != 0);
+                    estimator.estimateMillis(row[0] + shift);
+                }
+                offset[0] = shift + TimeUnit.DAYS.toMillis(2);
+            }
+        };
+        AllocationCounter.measure(replay, 200);
+        long start = System.nanoTime();
+        assertEquals(0, AllocationCounter.measure(replay, 200));
+        // AllocationCounter runs the replay several times.
+        long perUpdate = (System.nanoTime() - start) / (5L * 200 * trace.size());
+        assertTrue("update took " + perUpdate + " ns", perUpdate < 2000);
+    }
+}
@@ -0,0 +1,166 @@
+package com.rusdelphi.batterywatchface;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BatteryHistoryTest {
+    private static final long START = 1500000000000L;
+    private static final long STEP = TimeUnit.MINUTES.toMillis(5);
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    private static void appendSamples(BatteryHistory history, int from, int to) {
+        for (int i = from; i < to; i++) {
+            history.append(START + i * STEP, i % 101, i % 3 == 0);
+        }
+    }
+
+    /**
+     * Checks that {@code history} holds samples {@code from} until {@code to}, oldest first.
+     */
+    private static void assertSamples(BatteryHistory history, int from, int to) {
+        assertEquals(to - from, history.size());
+        for (int i = from; i < to; i++) {
+            int index = i - from;
+            assertEquals("timestamp " + index, START + i * STEP, history.getTimestamp(index));
+            assertEquals("percent " + index, i % 101, history.getPercent(index));
+            assertEquals("charging " + index, i % 3 == 0, history.isCharging(index));
+        }
+    }
+
+    @Test
+    public void keepsSamplesInOrder() {
+        BatteryHistory history = new BatteryHistory(8);
+        assertTrue(history.isEmpty());
+        assertEquals(-1, history.getLatestPercent());
+        appendSamples(history, 0, 5);
+        assertSamples(history, 0, 5);
+        assertEquals(4, history.getLatestPercent());
+    }
+
+    @Test
+    public void wrapsAround() {
+        BatteryHistory history = new BatteryHistory(4);
+        for (int count = 1; count <= 23; count++) {
+            history.append(START + (count - 1) * STEP, (count - 1) % 101, (count - 1) % 3 == 0);
+            assertSamples(history, Math.max(0, count - 4), count);
+        }
+        assertEquals(4, history.capacity());
+    }
+
+    @Test
+    public void appendIfChangedSkipsRepeats() {
+        BatteryHistory history = new BatteryHistory(4);
+        assertTrue(history.appendIfChanged(START, 50, false));
+        assertFalse(history.appendIfChanged(START + STEP, 50, false));
+        assertTrue(history.appendIfChanged(START + STEP, 50, true));
+        assertFalse(history.appendIfChanged(START + STEP, -1, true));
+        assertEquals(2, history.size());
+    }
+
+    @Test
+    public void reloadsAfterWrapAround() throws IOException {
+        File file = new File(mFolder.getRoot(), "history");
+        BatteryHistory history = BatteryHistory.open(file, 4);
+        appendSamples(history, 0, 10);
+        history.close();
+        history = BatteryHistory.open(file, 4);
+        assertSamples(history, 6, 10);
+        appendSamples(history, 10, 13);
+        history.close();
+        history = BatteryHistory.open(file, 4);
+        assertSamples(history, 9, 13);
+        history.close();
+    }
+
+    @Test
+    public void startsOverWithOtherCapacity() throws IOException {
+        File file = new File(mFolder.getRoot(), "history");
+        BatteryHistory history = BatteryHistory.open(file, 4);
+        appendSamples(history, 0, 3);
+        history.close();
+        history = BatteryHistory.open(file, 8);
+        assertTrue(history.isEmpty());
+        history.close();
+    }
+
+    /**
+     * A crash after the record of an append was written but before its count was leaves the
+     * history as it was, including the oldest sample that append would have dropped.
+     */
+    @Test
+    public void crashBeforeCountKeepsHistory() throws IOException {
+        File file = new File(mFolder.getRoot(), "history");
+        BatteryHistory history = BatteryHistory.open(file, 4);
+        appendSamples(history, 0, 10);
+        history.close();
+
+        RandomAccessFile raw = new RandomAccessFile(file, "rw");
+        // The next append's record goes to slot 10 % (capacity + 1).
+        raw.seek(BatteryHistory.HEADER_SIZE + (10 % 5) * BatteryHistory.RECORD_SIZE);
+        raw.writeLong(BatteryState.pack(99, true, START + 10 * STEP));
+        raw.close();
+
+        history = BatteryHistory.open(file, 4);
+        assertSamples(history, 6, 10);
+        history.close();
+    }
+
+    /**
+     * Once the count is written the append is complete.
+     */
+    @Test
+    public void crashAfterCountKeepsAppend() throws IOException {
+        File file = new File(mFolder.getRoot(), "history");
+        BatteryHistory history = BatteryHistory.open(file, 4);
+        appendSamples(history, 0, 11);
+        history.close();
+
+        RandomAccessFile raw = new RandomAccessFile(file, "rw");
+        raw.seek(BatteryHistory.COUNT_OFFSET);
+        assertEquals(11, raw.readLong());
+        raw.close();
+
+        history = BatteryHistory.open(file, 4);
+        assertSamples(history, 7, 11);
+        history.close();
+    }
+
+    /**
+     * Opening a full 100k-sample history is one sequential read. The limit is loose enough for a
+     * slow CI machine and still fails for anything per-sample expensive.
+     */
+    @Test
+    public void reloads100kSamplesQuickly() throws IOException {
+        int capacity = 100000;
+        File file = new File(mFolder.getRoot(), "history");
+        BatteryHistory history = BatteryHistory.open(file, capacity, false);
+        appendSamples(history, 0, capacity + 17);
+        history.close();
+
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            long start = System.nanoTime();
+            history = BatteryHistory.open(file, capacity);
+            best = Math.min(best, System.nanoTime() - start);
+            assertEquals(capacity, history.size());
+            history.close();
+        }
+        history = BatteryHistory.open(file, capacity);
+        assertSamples(history, 17, capacity + 17);
+        history.close();
+        assertTrue("reload took " + TimeUnit.NANOSECONDS.toMillis(best) + " ms",
+                best < TimeUnit.MILLISECONDS.toNanos(200));
+    }
+}
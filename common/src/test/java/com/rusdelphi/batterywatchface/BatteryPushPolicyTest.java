@@ -0,0 +1,119 @@
+package com.rusdelphi.batterywatchface;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BatteryPushPolicyTest {
+    private static final int DELTA = 5;
+    private static final int HYSTERESIS = 2;
+    private static final long MAX_STALE_MS = TimeUnit.MINUTES.toMillis(60);
+    private static final long T = TimeUnit.DAYS.toMillis(1000);
+
+    private BatteryPushPolicy mPolicy;
+
+    @Before
+    public void setUp() {
+        mPolicy = new BatteryPushPolicy(DELTA, HYSTERESIS, MAX_STALE_MS);
+    }
+
+    @Test
+    public void pushesTheFirstState() {
+        assertFalse(mPolicy.shouldPush(-1, false, T));
+        assertTrue(mPolicy.shouldPush(50, false, T));
+        assertEquals(0, mPolicy.delayUntilStale(T));
+    }
+
+    @Test
+    public void threshold() {
+        mPolicy.pushed(50, false, T);
+        assertFalse(mPolicy.shouldPush(50, false, T));
+        // No direction yet, both ways need the delta only.
+        assertFalse(mPolicy.shouldPush(46, false, T));
+        assertTrue(mPolicy.shouldPush(45, false, T));
+        assertFalse(mPolicy.shouldPush(54, false, T));
+        assertTrue(mPolicy.shouldPush(55, false, T));
+    }
+
+    @Test
+    public void moveBackNeedsHysteresis() {
+        mPolicy.pushed(50, false, T);
+        mPolicy.pushed(45, false, T);
+        assertEquals(-1, mPolicy.getDirection());
+        // Falling on needs the delta.
+        assertFalse(mPolicy.shouldPush(41, false, T));
+        assertTrue(mPolicy.shouldPush(40, false, T));
+        // Rising needs the delta and the hysteresis.
+        assertFalse(mPolicy.shouldPush(51, false, T));
+        assertTrue(mPolicy.shouldPush(52, false, T));
+    }
+
+    @Test
+    public void moveBackRearmsTheOtherWay() {
+        mPolicy.pushed(50, false, T);
+        mPolicy.pushed(45, false, T);
+        mPolicy.pushed(52, false, T);
+        assertEquals(1, mPolicy.getDirection());
+        assertFalse(mPolicy.shouldPush(56, false, T));
+        assertTrue(mPolicy.shouldPush(57, false, T));
+        assertFalse(mPolicy.shouldPush(46, false, T));
+        assertTrue(mPolicy.shouldPush(45, false, T));
+    }
+
+    @Test
+    public void samePercentKeepsTheDirection() {
+        mPolicy.pushed(50, false, T);
+        mPolicy.pushed(45, false, T);
+        mPolicy.pushed(45, false, T + 1000);
+        assertEquals(-1, mPolicy.getDirection());
+        assertEquals(T + 1000, mPolicy.getPushedTime());
+    }
+
+    @Test
+    public void chargingFlipPushesAndClearsTheDirection() {
+        mPolicy.pushed(50, false, T);
+        mPolicy.pushed(45, false, T);
+        assertTrue(mPolicy.shouldPush(45, true, T));
+        mPolicy.pushed(45, true, T);
+        assertEquals(0, mPolicy.getDirection());
+        assertTrue(mPolicy.isPushedCharging());
+        // Unplugged again at once, pushed whatever the level.
+        assertTrue(mPolicy.shouldPush(45, false, T));
+        // Rising while charging is not a move back.
+        assertTrue(mPolicy.shouldPush(50, true, T));
+    }
+
+    @Test
+    public void maxAgeForcesPush() {
+        mPolicy.pushed(50, false, T);
+        assertEquals(MAX_STALE_MS, mPolicy.delayUntilStale(T));
+        assertFalse(mPolicy.shouldPush(50, false, T + MAX_STALE_MS - 1));
+        assertEquals(1, mPolicy.delayUntilStale(T + MAX_STALE_MS - 1));
+        assertTrue(mPolicy.shouldPush(50, false, T + MAX_STALE_MS));
+        assertEquals(0, mPolicy.delayUntilStale(T + MAX_STALE_MS));
+    }
+
+    @Test
+    public void clockGoingBackwardsPushes() {
+        mPolicy.pushed(50, false, T);
+        assertFalse(mPolicy.shouldPush(50, false, T));
+        assertTrue(mPolicy.shouldPush(50, false, T - 1));
+    }
+
+    @Test
+    public void restoreKeepsTheRules() {
+        mPolicy.pushed(50, false, T);
+        mPolicy.pushed(45, false, T);
+        BatteryPushPolicy restored = new BatteryPushPolicy(DELTA, HYSTERESIS, MAX_STALE_MS);
+        restored.restore(mPolicy.getPushedPercent(), mPolicy.isPushedCharging(),
+                mPolicy.getDirection(), mPolicy.getPushedTime());
+        assertFalse(restored.shouldPush(51, false, T));
+        assertTrue(restored.shouldPush(52, false, T));
+        assertTrue(restored.shouldPush(50, false, T + MAX_STALE_MS));
+    }
+}
@@ -0,0 +1,135 @@
+package com.rusdelphi.batterywatchface;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BatterySyncSchedulerTest {
+    private static final long WINDOW_MS = 2000;
+    private static final long MIN_INTERVAL_MS = 30000;
+    private static final long T = 1000000;
+
+    private BatterySyncScheduler mScheduler;
+
+    @Before
+    public void setUp() {
+        mScheduler = new BatterySyncScheduler(WINDOW_MS, MIN_INTERVAL_MS);
+    }
+
+    /**
+     * Offers {@code percent} at {@code now} and sends it once due.
+     */
+    private void send(int percent, boolean charging, long now) {
+        long delay = mScheduler.offer(percent, charging, now);
+        assertTrue(mScheduler.poll(now + delay));
+    }
+
+    @Test
+    public void nothingPending() {
+        assertFalse(mScheduler.poll(T));
+        assertEquals(BatterySyncScheduler.NOTHING_PENDING, mScheduler.delayUntilDue(T));
+    }
+
+    @Test
+    public void firstUpdateWaitsForTheWindow() {
+        assertEquals(WINDOW_MS, mScheduler.offer(50, false, T));
+        assertFalse(mScheduler.poll(T + WINDOW_MS - 1));
+        assertEquals(1, mScheduler.delayUntilDue(T + WINDOW_MS - 1));
+        assertTrue(mScheduler.poll(T + WINDOW_MS));
+        // Sent, nothing left.
+        assertFalse(mScheduler.poll(T + WINDOW_MS));
+        assertEquals(BatterySyncScheduler.NOTHING_PENDING, mScheduler.delayUntilDue(T + WINDOW_MS));
+        assertEquals(1, mScheduler.getSentCount());
+    }
+
+    @Test
+    public void burstIsCoalesced() {
+        assertEquals(WINDOW_MS, mScheduler.offer(50, false, T));
+        // The window runs from the first update of the burst.
+        assertEquals(WINDOW_MS - 500, mScheduler.offer(49, false, T + 500));
+        assertEquals(WINDOW_MS - 1000, mScheduler.offer(48, false, T + 1000));
+        assertEquals(WINDOW_MS - 1500, mScheduler.offer(48, false, T + 1500));
+        assertTrue(mScheduler.poll(T + WINDOW_MS));
+        assertEquals(1, mScheduler.getSentCount());
+        assertEquals(2, mScheduler.getCoalescedCount());
+        assertEquals(1, mScheduler.getSuppressedCount());
+        // 48 was sent: offering it again is nothing new.
+        assertEquals(BatterySyncScheduler.NOTHING_PENDING, mScheduler.offer(48, false, T + 3000));
+    }
+
+    @Test
+    public void sendsAreAtLeastTheMinimumIntervalApart() {
+        send(50, false, T);
+        long sentAt = T + WINDOW_MS;
+        long now = sentAt + 1000;
+        assertEquals(MIN_INTERVAL_MS - 1000, mScheduler.offer(49, false, now));
+        assertFalse(mScheduler.poll(sentAt + MIN_INTERVAL_MS - 1));
+        assertEquals(1, mScheduler.delayUntilDue(sentAt + MIN_INTERVAL_MS - 1));
+        assertTrue(mScheduler.poll(sentAt + MIN_INTERVAL_MS));
+    }
+
+    @Test
+    public void windowStillAppliesAfterTheInterval() {
+        send(50, false, T);
+        long now = T + WINDOW_MS + MIN_INTERVAL_MS * 2;
+        assertEquals(WINDOW_MS, mScheduler.offer(49, false, now));
+    }
+
+    @Test
+    public void unchangedUpdateIsDropped() {
+        send(50, false, T);
+        long now = T + MIN_INTERVAL_MS * 2;
+        assertEquals(BatterySyncScheduler.NOTHING_PENDING, mScheduler.offer(50, false, now));
+        assertFalse(mScheduler.poll(now + WINDOW_MS));
+        assertEquals(1, mScheduler.getSuppressedCount());
+    }
+
+    @Test
+    public void chargingChangeAloneIsSent() {
+        send(50, false, T);
+        long now = T + MIN_INTERVAL_MS * 2;
+        assertEquals(WINDOW_MS, mScheduler.offer(50, true, now));
+        assertTrue(mScheduler.poll(now + WINDOW_MS));
+    }
+
+    @Test
+    public void returningToTheSentStateCancelsThePending() {
+        send(50, false, T);
+        long now = T + MIN_INTERVAL_MS * 2;
+        mScheduler.offer(49, false, now);
+        assertEquals(BatterySyncScheduler.NOTHING_PENDING, mScheduler.offer(50, false, now + 100));
+        assertEquals(BatterySyncScheduler.NOTHING_PENDING, mScheduler.delayUntilDue(now + 100));
+        assertFalse(mScheduler.poll(now + MIN_INTERVAL_MS));
+        assertEquals(1, mScheduler.getCoalescedCount());
+    }
+
+    @Test
+    public void invalidateSendsTheSameStateAgain() {
+        send(50, false, T);
+        mScheduler.invalidate();
+        long now = T + WINDOW_MS + 1;
+        // Nothing counts as sent, so no minimum interval either.
+        assertEquals(WINDOW_MS, mScheduler.offer(50, false, now));
+        assertTrue(mScheduler.poll(now + WINDOW_MS));
+    }
+
+    /**
+     * Without a window or interval, as the phone uses it to publish: a change is due at once and
+     * is sent by the poll right after the offer, an unchanged state is not pending at all.
+     */
+    @Test
+    public void immediateScheduler() {
+        mScheduler = new BatterySyncScheduler(0, 0);
+        assertEquals(0, mScheduler.offer(50, false, T));
+        assertTrue(mScheduler.poll(T));
+        assertEquals(BatterySyncScheduler.NOTHING_PENDING, mScheduler.offer(50, false, T + 1));
+        assertFalse(mScheduler.poll(T + 1));
+        assertEquals(0, mScheduler.offer(49, false, T + 2));
+        assertTrue(mScheduler.poll(T + 2));
+        assertEquals(2, mScheduler.getSentCount());
+        assertEquals(3, mScheduler.getOfferedCount());
+    }
+}
@@ -0,0 +1,191 @@
+package com.rusdelphi.batterywatchface;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link ClockModel} in a fixed time zone with daylight saving time, so midnight and the DST
+ * transitions fall at known instants whatever the machine's zone.
+ */
+public class ClockModelTest {
+    private static final TimeZone BERLIN = TimeZone.getTimeZone("Europe/Berlin");
+    private static final TimeZone TOKYO = TimeZone.getTimeZone("Asia/Tokyo");
+
+    private ClockModel mClock;
+
+    @Before
+    public void setUp() {
+        mClock = new ClockModel(BERLIN, Locale.US);
+    }
+
+    private static long time(TimeZone timeZone, int month, int day, int hour, int minute,
+            int second) {
+        Calendar calendar = Calendar.getInstance(timeZone, Locale.US);
+        calendar.clear();
+        calendar.set(2017, month, day, hour, minute, second);
+        return calendar.getTimeInMillis();
+    }
+
+    private static long berlin(int month, int day, int hour, int minute, int second) {
+        return time(BERLIN, month, day, hour, minute, second);
+    }
+
+    private void assertTime(int hour, int minute, int second) {
+        assertEquals(hour, mClock.getHour());
+        assertEquals(minute, mClock.getMinute());
+        assertEquals(second, mClock.getSecond());
+    }
+
+    @Test
+    public void firstUpdateFormatsTheDate() {
+        assertTrue(mClock.update(berlin(Calendar.JULY, 14, 9, 7, 5)));
+        assertTime(9, 7, 5);
+        assertEquals("14 Jul", mClock.getDateText());
+        assertEquals("Fri", mClock.getDayText());
+    }
+
+    @Test
+    public void secondsWithinTheMinute() {
+        long start = berlin(Calendar.JULY, 14, 9, 7, 0);
+        mClock.update(start + 400);
+        String date = mClock.getDateText();
+        for (int second = 0; second < 60; second++) {
+            assertFalse(mClock.update(start + second * 1000L + 999));
+            assertTime(9, 7, second);
+        }
+        assertSame(date, mClock.getDateText());
+    }
+
+    @Test
+    public void nextMinuteKeepsTheDateText() {
+        mClock.update(berlin(Calendar.JULY, 14, 9, 7, 59));
+        String date = mClock.getDateText();
+        String day = mClock.getDayText();
+        assertFalse(mClock.update(berlin(Calendar.JULY, 14, 9, 8, 0)));
+        assertTime(9, 8, 0);
+        assertFalse(mClock.update(berlin(Calendar.JULY, 14, 23, 59, 59)));
+        assertTime(23, 59, 59);
+        assertSame(date, mClock.getDateText());
+        assertSame(day, mClock.getDayText());
+    }
+
+    @Test
+    public void timeGoingBackwards() {
+        mClock.update(berlin(Calendar.JULY, 14, 9, 7, 30));
+        assertFalse(mClock.update(berlin(Calendar.JULY, 14, 9, 6, 50)));
+        assertTime(9, 6, 50);
+        assertTrue(mClock.update(berlin(Calendar.JULY, 13, 22, 0, 0)));
+        assertTime(22, 0, 0);
+        assertEquals("13 Jul", mClock.getDateText());
+    }
+
+    @Test
+    public void crossesMidnight() {
+        mClock.update(berlin(Calendar.JULY, 14, 23, 59, 59));
+        assertTrue(mClock.update(berlin(Calendar.JULY, 15, 0, 0, 0)));
+        assertTime(0, 0, 0);
+        assertEquals("15 Jul", mClock.getDateText());
+        assertEquals("Sat", mClock.getDayText());
+        assertFalse(mClock.update(berlin(Calendar.JULY, 15, 0, 0, 1)));
+    }
+
+    /**
+     * 26 March 2017 has 23 hours in Berlin: 02:00 is followed by 03:00.
+     */
+    @Test
+    public void springForward() {
+        long beforeJump = berlin(Calendar.MARCH, 26, 1, 59, 59);
+        mClock.update(beforeJump);
+        assertFalse(mClock.update(beforeJump + 1000));
+        assertTime(3, 0, 0);
+        assertEquals("26 Mar", mClock.getDateText());
+
+        mClock.update(berlin(Calendar.MARCH, 26, 23, 59, 59));
+        assertEquals("26 Mar", mClock.getDateText());
+        // A 24 hour day would run to 01:00.
+        assertTrue(mClock.update(berlin(Calendar.MARCH, 27, 0, 30, 0)));
+        assertTime(0, 30, 0);
+        assertEquals("27 Mar", mClock.getDateText());
+        assertEquals("Mon", mClock.getDayText());
+    }
+
+    /**
+     * 29 October 2017 has 25 hours in Berlin: 02:00 to 03:00 comes twice.
+     */
+    @Test
+    public void fallBack() {
+        long hour = 60 * 60 * 1000L;
+        long beforeRepeat = berlin(Calendar.OCTOBER, 29, 1, 30, 0);
+        mClock.update(beforeRepeat + hour);
+        assertTime(2, 30, 0);
+        assertFalse(mClock.update(beforeRepeat + 2 * hour));
+        assertTime(2, 30, 0);
+        assertFalse(mClock.update(beforeRepeat + 3 * hour));
+        assertTime(3, 30, 0);
+
+        // Past a 24 hour day, still 29 October.
+        assertFalse(mClock.update(berlin(Calendar.OCTOBER, 29, 23, 30, 0)));
+        assertEquals("29 Oct", mClock.getDateText());
+        assertTrue(mClock.update(berlin(Calendar.OCTOBER, 30, 0, 0, 0)));
+        assertEquals("30 Oct", mClock.getDateText());
+    }
+
+    @Test
+    public void timeZoneChange() {
+        // 20:30 in Berlin, 03:30 the next day in Tokyo.
+        long now = berlin(Calendar.JULY, 14, 20, 30, 15);
+        mClock.update(now);
+        mClock.setTimeZone(TOKYO);
+        assertTrue(mClock.update(now + 1000));
+        assertTime(3, 30, 16);
+        assertEquals("15 Jul", mClock.getDateText());
+        assertEquals("Sat", mClock.getDayText());
+        // Midnight is now Tokyo's.
+        assertTrue(mClock.update(time(TOKYO, Calendar.JULY, 16, 0, 0, 0)));
+        assertEquals("16 Jul", mClock.getDateText());
+    }
+
+    @Test
+    public void sameTimeZoneKeepsTheCache() {
+        long now = berlin(Calendar.JULY, 14, 20, 30, 15);
+        mClock.update(now);
+        mClock.setTimeZone(TimeZone.getTimeZone("Europe/Berlin"));
+        assertFalse(mClock.update(now + 1000));
+    }
+
+    @Test
+    public void localeChange() {
+        long now = berlin(Calendar.JULY, 14, 9, 7, 0);
+        mClock.update(now);
+        String date = mClock.getDateText();
+        assertFalse(mClock.setLocale(Locale.US));
+        assertFalse(mClock.update(now + 1000));
+        assertSame(date, mClock.getDateText());
+
+        assertTrue(mClock.setLocale(Locale.GERMANY));
+        assertTrue(mClock.update(now + 2000));
+        assertNotSame(date, mClock.getDateText());
+        assertEquals(format("dd MMM", Locale.GERMANY, now), mClock.getDateText());
+        assertEquals(format("EEE", Locale.GERMANY, now), mClock.getDayText());
+        // The time zone survives the new calendar.
+        assertTime(9, 7, 2);
+    }
+
+    private static String format(String pattern, Locale locale, long time) {
+        SimpleDateFormat format = new SimpleDateFormat(pattern, locale);
+        format.setTimeZone(BERLIN);
+        return format.format(new Date(time));
+    }
+}
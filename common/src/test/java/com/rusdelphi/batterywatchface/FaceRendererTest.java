@@ -0,0 +1,219 @@
+package com.rusdelphi.batterywatchface;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Per-frame budgets of {@link FaceRenderer} against {@link RecordingFaceCanvas}: draw calls, text
+ * measurements and allocated bytes of a steady-state frame in each layout. A frame that does
+ * more than its budget is a regression in the render path; raise a budget only together with
+ * the change that needs it.
+ */
+public class FaceRendererTest {
+    /**
+     * Dial layer, hours, minutes, date, day, seconds, arc, two icons, two levels, two estimates
+     * and the highlighted tick.
+     */
+    private static final int SQUARE_INTERACTIVE_DRAW_CALLS = 14;
+    /**
+     * As square, with the time in one text and no highlighted tick.
+     */
+    private static final int ROUND_INTERACTIVE_DRAW_CALLS = 12;
+    /**
+     * Clear and the time layer.
+     */
+    private static final int AMBIENT_DRAW_CALLS = 2;
+
+    private static final int WARMUP_FRAMES = 2000;
+    private static final int MEASURED_FRAMES = 1000;
+
+    private static final long START = 1500000000000L;
+    private static final long STALE_AFTER_MS = TimeUnit.MINUTES.toMillis(60);
+
+    private FaceRenderer mRenderer;
+    private RecordingFaceCanvas mCanvas;
+    private int mFrame;
+
+    /**
+     * What the face reads each frame, for {@link #updateFrame}.
+     */
+    private final ClockModel mClock = new ClockModel(TimeZone.getTimeZone("UTC"), Locale.US);
+    private final BatteryState mBatteryState = new BatteryState();
+    private final PeerBatteryStates mPeers = new PeerBatteryStates(STALE_AFTER_MS);
+    private final BatteryEstimator mWatchEstimator = new BatteryEstimator();
+    private final BatteryEstimator mPhoneEstimator = new BatteryEstimator();
+    private long mNow = START;
+
+    @Before
+    public void setUp() {
+        mRenderer = new FaceRenderer(new RenderStats());
+        mRenderer.setSurfaceSize(320, 320);
+        mRenderer.setDate("14 Jul", "Fri");
+        mRenderer.setBattery(BatteryState.pack(57, false, 0), BatteryState.pack(83, true, 0), 0);
+        mRenderer.setEstimates(BatteryFormat.duration(TimeUnit.MINUTES.toMillis(45)),
+                BatteryFormat.duration(TimeUnit.HOURS.toMillis(12)));
+        mCanvas = new RecordingFaceCanvas();
+
+        mRenderer.setStaleAfter(STALE_AFTER_MS);
+        for (int i = 0; i < 10; i++) {
+            long timestamp = START - TimeUnit.MINUTES.toMillis(10 * (10 - i));
+            mWatchEstimator.add(timestamp, 90 - i, false);
+            mPhoneEstimator.add(timestamp, 60 + i, true);
+        }
+        mBatteryState.set(BatteryState.DEVICE_WATCH, 80, false, START);
+        RequestTracker requests = new RequestTracker(STALE_AFTER_MS);
+        WatchBatterySync.storePhoneState(mBatteryState, mPeers, requests, "phone",
+                RequestTracker.NONE, 70, true, START, 0, START);
+        WatchBatterySync.storePhoneState(mBatteryState, mPeers, requests, "tablet",
+                RequestTracker.NONE, 40, false, START, 0, START);
+    }
+
+    /**
+     * Draws the next second, or in ambient mode the next minute.
+     */
+    private void drawFrame(boolean ambient) {
+        mFrame++;
+        if (ambient) {
+            mRenderer.setTime((mFrame / 60) % 24, mFrame % 60, 0);
+        } else {
+            mRenderer.setTime(10, (mFrame / 60) % 60, mFrame % 60);
+        }
+        mRenderer.draw(mCanvas, ambient, !ambient);
+    }
+
+    /**
+     * A frame the way the face draws it: the clock, levels and estimates one second, or in
+     * ambient mode one minute, after the previous frame.
+     */
+    private void updateFrame(boolean ambient) {
+        mNow += ambient ? TimeUnit.MINUTES.toMillis(1) : TimeUnit.SECONDS.toMillis(1);
+        mRenderer.update(mClock, mBatteryState, mWatchEstimator, mPhoneEstimator, mNow);
+        mRenderer.draw(mCanvas, ambient, !ambient);
+    }
+
+    /**
+     * Counts of one frame after the layers and width tables were built.
+     */
+    private void drawSteadyFrame(boolean round, boolean ambient) {
+        mRenderer.setRound(round);
+        drawFrame(ambient);
+        mCanvas.reset();
+        mFrame = 60 * 10;
+        drawFrame(ambient);
+    }
+
+    private void assertFrame(int drawCalls) {
+        assertTrue("draw calls " + mCanvas.getDrawCalls() + " over budget " + drawCalls,
+                mCanvas.getDrawCalls() <= drawCalls);
+        assertEquals("text measured per frame", 0, mCanvas.getMeasureCalls());
+        assertEquals("sizes set per frame", 0, mCanvas.getSizeChanges());
+    }
+
+    @Test
+    public void squareInteractiveFrame() {
+        drawSteadyFrame(false, false);
+        assertFrame(SQUARE_INTERACTIVE_DRAW_CALLS);
+        assertEquals(0, mCanvas.getLayerRebuilds());
+        assertEquals(1, mCanvas.getLayerDraws());
+    }
+
+    @Test
+    public void roundInteractiveFrame() {
+        drawSteadyFrame(true, false);
+        assertFrame(ROUND_INTERACTIVE_DRAW_CALLS);
+        assertEquals(0, mCanvas.getLayerRebuilds());
+        assertEquals(1, mCanvas.getLayerDraws());
+    }
+
+    @Test
+    public void ambientFrame() {
+        drawSteadyFrame(false, true);
+        assertFrame(AMBIENT_DRAW_CALLS);
+        // One rebuild of the time layer for the new minute.
+        assertEquals(1, mCanvas.getLayerRebuilds());
+        drawSteadyFrame(true, true);
+        assertFrame(AMBIENT_DRAW_CALLS);
+    }
+
+    @Test
+    public void ambientFrameInSameMinuteOnlyBlits() {
+        drawFrame(true);
+        mCanvas.reset();
+        mRenderer.draw(mCanvas, true, false);
+        assertEquals(AMBIENT_DRAW_CALLS, mCanvas.getDrawCalls());
+        assertEquals(0, mCanvas.getLayerRebuilds());
+    }
+
+    @Test
+    public void surfaceChangeMeasuresOnce() {
+        drawFrame(false);
+        mRenderer.setSurfaceSize(400, 400);
+        mCanvas.reset();
+        drawFrame(false);
+        assertTrue(mCanvas.getMeasureCalls() > 0);
+        assertTrue(mCanvas.getSizeChanges() > 0);
+        mCanvas.reset();
+        drawFrame(false);
+        assertEquals(0, mCanvas.getMeasureCalls());
+        assertEquals(0, mCanvas.getSizeChanges());
+    }
+
+    @Test
+    public void framesDoNotAllocate() {
+        assertNoAllocations(false, false);
+        assertNoAllocations(true, false);
+        assertNoAllocations(false, true);
+        assertNoAllocations(true, true);
+    }
+
+    private void assertNoAllocations(final boolean round, final boolean ambient) {
+        mRenderer.setRound(round);
+        Runnable frame = new Runnable() {
+            @Override
+            public void run() {
+                updateFrame(ambient);
+            }
+        };
+        AllocationCounter.measure(frame, WARMUP_FRAMES);
+        assertEquals("bytes allocated in " + MEASURED_FRAMES + (round ? " round" : " square")
+                        + (ambient ? " ambient" : " interactive") + " frames",
+                0, AllocationCounter.measure(frame, MEASURED_FRAMES));
+    }
+
+    /**
+     * The other phone's level is published when states arrive, so a frame never waits for a
+     * receiver holding the peers' lock.
+     */
+    @Test(timeout = 5000)
+    public void framesDoNotTakeThePeersLock() throws InterruptedException {
+        assertEquals(40, BatteryState.percent(mBatteryState.get(BatteryState.DEVICE_OTHER_PHONE)));
+        final CountDownLatch locked = new CountDownLatch(1);
+        final CountDownLatch drawn = new CountDownLatch(1);
+        Thread receiver = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (mPeers) {
+                    locked.countDown();
+                    try {
+                        drawn.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        });
+        receiver.start();
+        locked.await();
+        updateFrame(false);
+        drawn.countDown();
+        receiver.join();
+    }
+}
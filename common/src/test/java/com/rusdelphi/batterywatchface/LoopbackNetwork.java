@@ -0,0 +1,228 @@
+package com.rusdelphi.batterywatchface;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * In-memory network of {@link BatteryTransport} nodes on a simulated clock, for running the sync
+ * logic of several devices in one JVM.
+ * <p>
+ * Each message takes a latency drawn from {@code [minLatencyMs, maxLatencyMs]}, so messages may
+ * overtake each other, and is dropped with the configured loss rate. Sends from or to a
+ * disconnected node fail. Nothing happens on its own: {@link #runUntil} and {@link #runUntilIdle}
+ * deliver messages and run tasks in time order on the calling thread, so a run with the same seed
+ * and the same calls is the same run. Not thread-safe.
+ * <p>
+ * Every node reaches every other one until the first {@link #link}; from then on only linked
+ * pairs see each other, like phones that each pair with the watch but not with one another.
+ */
+public class LoopbackNetwork {
+    private final Random mRandom;
+    private final Map<String, Node> mNodes = new LinkedHashMap<String, Node>();
+    private final Set<String> mLinks = new HashSet<String>();
+    private final PriorityQueue<Event> mEvents = new PriorityQueue<Event>();
+    private long mNow;
+    private long mSequence;
+
+    private long mMinLatencyMs;
+    private long mMaxLatencyMs;
+    private double mLossRate;
+
+    private long mSentCount;
+    private long mDeliveredCount;
+    private long mLostCount;
+    private long mRejectedCount;
+
+    public LoopbackNetwork(long seed) {
+        mRandom = new Random(seed);
+    }
+
+    public void setLatency(long minLatencyMs, long maxLatencyMs) {
+        mMinLatencyMs = Math.max(0, minLatencyMs);
+        mMaxLatencyMs = Math.max(mMinLatencyMs, maxLatencyMs);
+    }
+
+    /**
+     * Share of sent messages dropped on the way, from 0 to 1.
+     */
+    public void setLossRate(double lossRate) {
+        mLossRate = lossRate;
+    }
+
+    /**
+     * Adds a connected node delivering its messages to {@code receiver}.
+     */
+    public BatteryTransport addNode(String id, BatteryTransport.Receiver receiver) {
+        Node node = new Node(id, receiver);
+        mNodes.put(id, node);
+        return node;
+    }
+
+    /**
+     * Lets {@code a} and {@code b} see each other, and stops nodes that aren't linked from doing so.
+     */
+    public void link(String a, String b) {
+        mLinks.add(a + '\n' + b);
+        mLinks.add(b + '\n' + a);
+    }
+
+    private boolean isLinked(String from, String to) {
+        return mLinks.isEmpty() || mLinks.contains(from + '\n' + to);
+    }
+
+    /**
+     * Connects or disconnects a node. Messages on their way to a disconnected node are lost.
+     */
+    public void setConnected(String id, boolean connected) {
+        mNodes.get(id).mConnected = connected;
+    }
+
+    /**
+     * Current simulated time in milliseconds, starting at 0.
+     */
+    public long now() {
+        return mNow;
+    }
+
+    /**
+     * Runs {@code task} at {@link #now} + {@code delayMs}.
+     */
+    public void schedule(long delayMs, Runnable task) {
+        mEvents.add(new Event(mNow + Math.max(0, delayMs), mSequence++, task));
+    }
+
+    /**
+     * Runs everything due up to {@code time}, including what that schedules, and advances the
+     * clock to it.
+     */
+    public void runUntil(long time) {
+        while (!mEvents.isEmpty() && mEvents.peek().mTime <= time) {
+            runNext();
+        }
+        mNow = Math.max(mNow, time);
+    }
+
+    /**
+     * Runs until nothing is scheduled any more.
+     */
+    public void runUntilIdle() {
+        while (!mEvents.isEmpty()) {
+            runNext();
+        }
+    }
+
+    private void runNext() {
+        Event event = mEvents.poll();
+        mNow = Math.max(mNow, event.mTime);
+        event.mTask.run();
+    }
+
+    public long getSentCount() {
+        return mSentCount;
+    }
+
+    public long getDeliveredCount() {
+        return mDeliveredCount;
+    }
+
+    /**
+     * Messages dropped by the loss rate or because their node disconnected on the way.
+     */
+    public long getLostCount() {
+        return mLostCount;
+    }
+
+    /**
+     * Sends that failed because a node was disconnected, unknown or not linked.
+     */
+    public long getRejectedCount() {
+        return mRejectedCount;
+    }
+
+    @Override
+    public String toString() {
+        return "LoopbackNetwork{now=" + mNow + ", sent=" + mSentCount
+                + ", delivered=" + mDeliveredCount + ", lost=" + mLostCount
+                + ", rejected=" + mRejectedCount + "}";
+    }
+
+    private class Node implements BatteryTransport {
+        final String mId;
+        final Receiver mReceiver;
+        boolean mConnected = true;
+
+        Node(String id, Receiver receiver) {
+            mId = id;
+            mReceiver = receiver;
+        }
+
+        @Override
+        public Collection<String> getConnectedNodes() {
+            List<String> nodes = new ArrayList<String>();
+            if (mConnected) {
+                for (Node node : mNodes.values()) {
+                    if (node != this && node.mConnected && isLinked(mId, node.mId)) {
+                        nodes.add(node.mId);
+                    }
+                }
+            }
+            return nodes;
+        }
+
+        @Override
+        public boolean send(String nodeId, byte[] data) {
+            final Node target = mNodes.get(nodeId);
+            if (!mConnected || target == null || !target.mConnected || !isLinked(mId, nodeId)) {
+                mRejectedCount++;
+                return false;
+            }
+            mSentCount++;
+            if (mRandom.nextDouble() < mLossRate) {
+                mLostCount++;
+                return true;
+            }
+            long latency = mMinLatencyMs
+                    + (long) (mRandom.nextDouble() * (mMaxLatencyMs - mMinLatencyMs + 1));
+            final byte[] copy = data.clone();
+            schedule(Math.min(latency, mMaxLatencyMs), new Runnable() {
+                @Override
+                public void run() {
+                    if (!target.mConnected) {
+                        mLostCount++;
+                        return;
+                    }
+                    mDeliveredCount++;
+                    target.mReceiver.onMessage(mId, copy);
+                }
+            });
+            return true;
+        }
+    }
+
+    private static class Event implements Comparable<Event> {
+        final long mTime;
+        final long mSequence;
+        final Runnable mTask;
+
+        Event(long time, long sequence, Runnable task) {
+            mTime = time;
+            mSequence = sequence;
+            mTask = task;
+        }
+
+        @Override
+        public int compareTo(Event other) {
+            if (mTime != other.mTime) {
+                return mTime < other.mTime ? -1 : 1;
+            }
+            return mSequence < other.mSequence ? -1 : mSequence == other.mSequence ? 0 : 1;
+        }
+    }
+}
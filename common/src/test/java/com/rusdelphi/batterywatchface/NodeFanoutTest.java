@@ -0,0 +1,105 @@
+package com.rusdelphi.batterywatchface;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class NodeFanoutTest {
+    /**
+     * Nodes that fail every send while listed in {@link #mFailing}, and a log of who got what.
+     */
+    private static class FakeTransport implements BatteryTransport {
+        final List<String> mNodes = new ArrayList<String>();
+        final Set<String> mFailing = Collections.synchronizedSet(new HashSet<String>());
+        final List<String> mReceived = Collections.synchronizedList(new ArrayList<String>());
+
+        FakeTransport(String... nodes) {
+            mNodes.addAll(Arrays.asList(nodes));
+        }
+
+        @Override
+        public Collection<String> getConnectedNodes() {
+            return mNodes;
+        }
+
+        @Override
+        public boolean send(String nodeId, byte[] data) {
+            if (mFailing.contains(nodeId)) {
+                return false;
+            }
+            mReceived.add(nodeId);
+            return true;
+        }
+    }
+
+    private ExecutorService mExecutor;
+    private NodeFanout mFanout;
+
+    @Before
+    public void setUp() {
+        mExecutor = NodeFanout.newExecutor(2, 8);
+        mFanout = new NodeFanout(mExecutor, 1000);
+    }
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+    }
+
+    @Test
+    public void retrySendsOnlyToFailedNodes() {
+        FakeTransport transport = new FakeTransport("a", "b", "c");
+        byte[] data = {1};
+        transport.mFailing.add("b");
+        assertFalse(mFanout.send(transport, data));
+        assertEquals(2, transport.mReceived.size());
+
+        transport.mReceived.clear();
+        transport.mFailing.clear();
+        assertTrue(mFanout.send(transport, data));
+        assertEquals(Arrays.asList("b"), transport.mReceived);
+    }
+
+    @Test
+    public void newPayloadGoesToEveryNode() {
+        FakeTransport transport = new FakeTransport("a", "b");
+        transport.mFailing.add("b");
+        assertFalse(mFanout.send(transport, new byte[]{1}));
+
+        transport.mReceived.clear();
+        transport.mFailing.clear();
+        assertTrue(mFanout.send(transport, new byte[]{2}));
+        assertEquals(2, transport.mReceived.size());
+    }
+
+    @Test
+    public void retrySucceedsWhenFailedNodeIsGone() {
+        FakeTransport transport = new FakeTransport("a", "b");
+        byte[] data = {1};
+        transport.mFailing.add("b");
+        assertFalse(mFanout.send(transport, data));
+
+        transport.mNodes.remove("b");
+        transport.mReceived.clear();
+        assertTrue(mFanout.send(transport, data));
+        assertTrue(transport.mReceived.isEmpty());
+    }
+
+    @Test
+    public void noNodesFails() {
+        assertFalse(mFanout.send(new FakeTransport(), new byte[]{1}));
+    }
+}
@@ -0,0 +1,122 @@
+package com.rusdelphi.batterywatchface;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PeerBatteryStatesTest {
+    private static final long MAX_AGE_MS = TimeUnit.MINUTES.toMillis(60);
+    private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+    private static final long T = 1500000000000L;
+
+    private PeerBatteryStates mPeers;
+
+    @Before
+    public void setUp() {
+        mPeers = new PeerBatteryStates(MAX_AGE_MS);
+    }
+
+    /**
+     * A state stamped and received at {@code time}.
+     */
+    private boolean set(String nodeId, int percent, long time) {
+        return mPeers.set(nodeId, percent, false, time, time);
+    }
+
+    @Test
+    public void empty() {
+        assertEquals(BatteryState.UNKNOWN, mPeers.getPrimary());
+        assertEquals(BatteryState.UNKNOWN, mPeers.getSecondary());
+        assertEquals(null, mPeers.getPrimaryId());
+        assertEquals(BatteryState.UNKNOWN, mPeers.get("phone"));
+    }
+
+    @Test
+    public void firstToReportIsPrimary() {
+        assertTrue(set("phone", 70, T));
+        assertFalse(set("tablet", 40, T + MINUTE));
+        assertEquals("phone", mPeers.getPrimaryId());
+        assertEquals(70, BatteryState.percent(mPeers.getPrimary()));
+        assertEquals(40, BatteryState.percent(mPeers.getSecondary()));
+        // Its own updates keep it primary.
+        assertTrue(set("phone", 69, T + 2 * MINUTE));
+        assertEquals(69, BatteryState.percent(mPeers.getPrimary()));
+        assertEquals(2, mPeers.size());
+    }
+
+    @Test
+    public void primaryIsKeptWhileFresh() {
+        set("phone", 70, T);
+        assertFalse(set("tablet", 40, T + MAX_AGE_MS));
+        assertEquals("phone", mPeers.getPrimaryId());
+    }
+
+    @Test
+    public void stalePrimaryIsTakenOver() {
+        set("phone", 70, T);
+        assertTrue(set("tablet", 40, T + MAX_AGE_MS + 1));
+        assertEquals("tablet", mPeers.getPrimaryId());
+        assertEquals(40, BatteryState.percent(mPeers.getPrimary()));
+        // The old primary is now the other phone, and doesn't take back over while the new one
+        // is fresh.
+        assertFalse(set("phone", 71, T + MAX_AGE_MS + 2));
+        assertEquals(71, BatteryState.percent(mPeers.getSecondary()));
+        assertEquals("tablet", mPeers.getPrimaryId());
+    }
+
+    @Test
+    public void unknownPrimaryIsTakenOver() {
+        set("phone", -1, T);
+        assertEquals("phone", mPeers.getPrimaryId());
+        assertTrue(set("tablet", 40, T + MINUTE));
+        assertEquals("tablet", mPeers.getPrimaryId());
+        // An unknown state is never the other phone.
+        assertEquals(BatteryState.UNKNOWN, mPeers.getSecondary());
+    }
+
+    @Test
+    public void secondaryIsTheMostRecentOther() {
+        set("phone", 70, T);
+        set("tablet", 40, T + 2 * MINUTE);
+        set("old", 20, T + MINUTE);
+        assertEquals(40, BatteryState.percent(mPeers.getSecondary()));
+        set("old", 21, T + 3 * MINUTE);
+        assertEquals(21, BatteryState.percent(mPeers.getSecondary()));
+    }
+
+    @Test
+    public void evictsTheLeastRecentOtherThanThePrimary() {
+        // The primary is the oldest and still kept.
+        set("phone", 70, T);
+        for (int i = 1; i < PeerBatteryStates.MAX_PEERS; i++) {
+            set("node" + i, 50 + i, T + i * MINUTE);
+        }
+        assertEquals(PeerBatteryStates.MAX_PEERS, mPeers.size());
+        set("new", 10, T + 10 * MINUTE);
+        assertEquals(PeerBatteryStates.MAX_PEERS, mPeers.size());
+        assertEquals("phone", mPeers.getPrimaryId());
+        assertEquals(BatteryState.UNKNOWN, mPeers.get("node1"));
+        assertEquals(10, BatteryState.percent(mPeers.get("new")));
+        for (int i = 2; i < PeerBatteryStates.MAX_PEERS; i++) {
+            assertEquals(50 + i, BatteryState.percent(mPeers.get("node" + i)));
+        }
+    }
+
+    @Test
+    public void evictedNodeComesBackAsNew() {
+        set("phone", 70, T);
+        for (int i = 1; i <= PeerBatteryStates.MAX_PEERS; i++) {
+            set("node" + i, 50 + i, T + i * MINUTE);
+        }
+        assertEquals(BatteryState.UNKNOWN, mPeers.get("node1"));
+        assertFalse(set("node1", 30, T + 20 * MINUTE));
+        assertEquals(30, BatteryState.percent(mPeers.get("node1")));
+        // node2 was the least recent then.
+        assertEquals(BatteryState.UNKNOWN, mPeers.get("node2"));
+    }
+}
@@ -0,0 +1,174 @@
+package com.rusdelphi.batterywatchface;
+
+/**
+ * {@link FaceCanvas} that draws nothing and counts calls, for measuring {@link FaceRenderer} on a
+ * plain JVM. Text is measured as {@code length * charWidth}. Layers get their own recorder, so
+ * the counts of this canvas are what a frame costs once the layers are built.
+ */
+public class RecordingFaceCanvas implements FaceCanvas {
+    private final float mCharWidth;
+    private final float mAscent;
+    private final float mDescent;
+    private RecordingFaceCanvas[] mLayers;
+
+    private int mDrawCalls;
+    private int mTextDraws;
+    private int mMeasureCalls;
+    private int mLayerDraws;
+    private int mLayerRebuilds;
+    private int mSizeChanges;
+
+    public RecordingFaceCanvas() {
+        this(10, -20, 5);
+    }
+
+    public RecordingFaceCanvas(float charWidth, float ascent, float descent) {
+        mCharWidth = charWidth;
+        mAscent = ascent;
+        mDescent = descent;
+    }
+
+    public void reset() {
+        mDrawCalls = 0;
+        mTextDraws = 0;
+        mMeasureCalls = 0;
+        mLayerDraws = 0;
+        mLayerRebuilds = 0;
+        mSizeChanges = 0;
+    }
+
+    /**
+     * All draw operations, including text and layer blits.
+     */
+    public int getDrawCalls() {
+        return mDrawCalls;
+    }
+
+    public int getTextDraws() {
+        return mTextDraws;
+    }
+
+    public int getMeasureCalls() {
+        return mMeasureCalls;
+    }
+
+    public int getLayerDraws() {
+        return mLayerDraws;
+    }
+
+    public int getLayerRebuilds() {
+        return mLayerRebuilds;
+    }
+
+    /**
+     * Text size, stroke width and icon size changes.
+     */
+    public int getSizeChanges() {
+        return mSizeChanges;
+    }
+
+    /**
+     * The recorder used for {@code layer}, or null if it was never begun.
+     */
+    public RecordingFaceCanvas getLayer(int layer) {
+        return mLayers == null ? null : mLayers[layer];
+    }
+
+    @Override
+    public void setTextSize(int paint, float size) {
+        mSizeChanges++;
+    }
+
+    @Override
+    public void setStrokeWidth(int paint, float width) {
+        mSizeChanges++;
+    }
+
+    @Override
+    public void setIconSize(int width, int height) {
+        mSizeChanges++;
+    }
+
+    @Override
+    public FaceCanvas beginLayer(int layer, int width, int height) {
+        if (mLayers == null) {
+            mLayers = new RecordingFaceCanvas[LAYER_COUNT];
+        }
+        if (mLayers[layer] == null) {
+            mLayers[layer] = new RecordingFaceCanvas(mCharWidth, mAscent, mDescent);
+        }
+        mLayerRebuilds++;
+        return mLayers[layer];
+    }
+
+    @Override
+    public void drawLayer(int layer, float x, float y) {
+        mDrawCalls++;
+        mLayerDraws++;
+    }
+
+    @Override
+    public void drawColor(int argb) {
+        mDrawCalls++;
+    }
+
+    @Override
+    public void drawRect(float left, float top, float right, float bottom, int paint) {
+        mDrawCalls++;
+    }
+
+    @Override
+    public void drawLines(float[] pts, int offset, int count, int paint) {
+        mDrawCalls++;
+    }
+
+    @Override
+    public void fillPolygon(float[] xy, int pointCount, int paint) {
+        mDrawCalls++;
+    }
+
+    @Override
+    public void drawArc(float left, float top, float right, float bottom, float startAngle,
+                        float sweepAngle, int paint) {
+        mDrawCalls++;
+    }
+
+    @Override
+    public void drawIcon(int icon, float x, float y) {
+        mDrawCalls++;
+    }
+
+    @Override
+    public void drawText(CharSequence text, int start, int end, float x, float y, int paint) {
+        mDrawCalls++;
+        mTextDraws++;
+    }
+
+    @Override
+    public void drawText(char[] text, int index, int count, float x, float y, int paint) {
+        mDrawCalls++;
+        mTextDraws++;
+    }
+
+    @Override
+    public float measureText(CharSequence text, int start, int end, int paint) {
+        mMeasureCalls++;
+        return (end - start) * mCharWidth;
+    }
+
+    @Override
+    public float measureText(char[] text, int index, int count, int paint) {
+        mMeasureCalls++;
+        return count * mCharWidth;
+    }
+
+    @Override
+    public float getAscent(int paint) {
+        return mAscent;
+    }
+
+    @Override
+    public float getDescent(int paint) {
+        return mDescent;
+    }
+}
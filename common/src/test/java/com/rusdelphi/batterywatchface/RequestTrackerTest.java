@@ -0,0 +1,141 @@
+package com.rusdelphi.batterywatchface;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link RequestTracker} against a clock the test advances, in monotonic milliseconds.
+ */
+public class RequestTrackerTest {
+    private static final long TIMEOUT_MS = 30000;
+
+    private RequestTracker mTracker;
+    private long mNow = 5000000;
+
+    @Before
+    public void setUp() {
+        mTracker = new RequestTracker(TIMEOUT_MS);
+    }
+
+    private int begin() {
+        return mTracker.begin(mNow);
+    }
+
+    private long complete(int id) {
+        return mTracker.complete(id, mNow);
+    }
+
+    @Test
+    public void oneRequestInFlight() {
+        int id = begin();
+        assertNotEquals(RequestTracker.NONE, id);
+        assertEquals(id, mTracker.getInFlightId());
+        mNow += 100;
+        assertEquals(RequestTracker.NONE, begin());
+        assertEquals(RequestTracker.NONE, begin());
+        assertEquals(1, mTracker.getStartedCount());
+        assertEquals(2, mTracker.getDeduplicatedCount());
+    }
+
+    @Test
+    public void replyEndsTheRequest() {
+        int id = begin();
+        mNow += 250;
+        assertEquals(250, complete(id));
+        assertEquals(RequestTracker.NONE, mTracker.getInFlightId());
+        assertEquals(1, mTracker.getCompletedCount());
+        // A duplicate of the reply matches nothing.
+        assertEquals(-1, complete(id));
+        assertEquals(1, mTracker.getCompletedCount());
+        int next = begin();
+        assertNotEquals(RequestTracker.NONE, next);
+        assertNotEquals(id, next);
+    }
+
+    @Test
+    public void unrelatedRepliesAreIgnored() {
+        int id = begin();
+        assertEquals(-1, complete(RequestTracker.NONE));
+        assertEquals(-1, complete(id + 1 == 0x10000 ? 1 : id + 1));
+        assertEquals(id, mTracker.getInFlightId());
+        assertEquals(0, mTracker.getLateCount());
+    }
+
+    @Test
+    public void timeoutAllowsANewRequest() {
+        int id = begin();
+        mNow += TIMEOUT_MS - 1;
+        assertEquals(RequestTracker.NONE, begin());
+        mNow += 1;
+        int next = begin();
+        assertNotEquals(RequestTracker.NONE, next);
+        assertNotEquals(id, next);
+        assertEquals(1, mTracker.getTimeoutCount());
+    }
+
+    @Test
+    public void lateReplyIsCountedNotMatched() {
+        int id = begin();
+        mNow += TIMEOUT_MS;
+        assertEquals(-1, complete(id));
+        assertEquals(1, mTracker.getTimeoutCount());
+        assertEquals(1, mTracker.getLateCount());
+        assertEquals(0, mTracker.getCompletedCount());
+        assertEquals(-1, mTracker.getLastRttMs());
+    }
+
+    @Test
+    public void lateReplyDoesNotEndTheNextRequest() {
+        int id = begin();
+        mNow += TIMEOUT_MS;
+        int next = begin();
+        mNow += 10;
+        assertEquals(-1, complete(id));
+        assertEquals(1, mTracker.getLateCount());
+        assertEquals(next, mTracker.getInFlightId());
+        assertEquals(10, complete(next));
+    }
+
+    @Test
+    public void roundTripTimes() {
+        assertEquals(-1, mTracker.getMeanRttMs());
+        long[] rtts = {300, 100, 200};
+        for (long rtt : rtts) {
+            int id = begin();
+            mNow += rtt;
+            assertEquals(rtt, complete(id));
+        }
+        assertEquals(200, mTracker.getLastRttMs());
+        assertEquals(100, mTracker.getMinRttMs());
+        assertEquals(300, mTracker.getMaxRttMs());
+        assertEquals(200, mTracker.getMeanRttMs());
+    }
+
+    /**
+     * A clock that went backwards doesn't make a negative round trip.
+     */
+    @Test
+    public void clockGoingBackwards() {
+        int id = begin();
+        mNow -= 1000;
+        assertEquals(0, complete(id));
+    }
+
+    @Test
+    public void idsAreDistinctAndValid() {
+        Set<Integer> ids = new HashSet<Integer>();
+        for (int i = 0; i < 1000; i++) {
+            int id = begin();
+            assertTrue(id > 0 && id <= 0xffff);
+            assertTrue(ids.add(id));
+            complete(id);
+        }
+    }
+}
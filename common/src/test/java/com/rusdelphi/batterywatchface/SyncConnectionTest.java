@@ -0,0 +1,90 @@
+package com.rusdelphi.batterywatchface;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SyncConnectionTest {
+    private SyncConnection mConnection;
+
+    /**
+     * Fails the first {@code connectFailures} connects and {@code sendFailures} sends.
+     */
+    private static class FakeEndpoint implements SyncConnection.Endpoint {
+        final AtomicInteger mConnectFailures;
+        final AtomicInteger mSendFailures;
+        final AtomicInteger mConnects = new AtomicInteger();
+
+        FakeEndpoint(int connectFailures, int sendFailures) {
+            mConnectFailures = new AtomicInteger(connectFailures);
+            mSendFailures = new AtomicInteger(sendFailures);
+        }
+
+        @Override
+        public boolean connect() {
+            mConnects.incrementAndGet();
+            return mConnectFailures.getAndDecrement() <= 0;
+        }
+
+        @Override
+        public boolean send(int slot, byte[] data) {
+            return mSendFailures.getAndDecrement() <= 0;
+        }
+    }
+
+    @After
+    public void tearDown() {
+        mConnection.stop();
+    }
+
+    private void start(FakeEndpoint endpoint) {
+        mConnection = new SyncConnection(endpoint, new Backoff(1, 1), new Backoff(1, 1));
+        mConnection.start();
+        mConnection.offer(SyncConnection.SLOT_STATE, new byte[]{1});
+    }
+
+    private void awaitSent() throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (mConnection.getSentCount() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(1, mConnection.getSentCount());
+    }
+
+    @Test
+    public void failedSendsAreNotConnectAttempts() throws InterruptedException {
+        start(new FakeEndpoint(0, 3));
+        awaitSent();
+        assertEquals(3, mConnection.getSendFailureCount());
+        assertEquals(1, mConnection.getConnectAttemptCount());
+        assertEquals(0, mConnection.getConnectFailureCount());
+        assertEquals(SyncConnection.STATE_CONNECTED, mConnection.getState());
+    }
+
+    @Test
+    public void failedConnectsAreCountedOnce() throws InterruptedException {
+        start(new FakeEndpoint(2, 1));
+        awaitSent();
+        assertEquals(3, mConnection.getConnectAttemptCount());
+        assertEquals(2, mConnection.getConnectFailureCount());
+        assertEquals(1, mConnection.getSendFailureCount());
+    }
+
+    @Test
+    public void retriesAfterSendFailureUseSendBackoff() throws InterruptedException {
+        // A long connect backoff would stall the retries if they used it.
+        FakeEndpoint endpoint = new FakeEndpoint(0, 2);
+        mConnection = new SyncConnection(endpoint,
+                new Backoff(TimeUnit.MINUTES.toMillis(10), TimeUnit.MINUTES.toMillis(10)),
+                new Backoff(1, 1));
+        mConnection.start();
+        mConnection.offer(SyncConnection.SLOT_STATE, new byte[]{1});
+        awaitSent();
+        assertTrue(endpoint.mConnects.get() >= 3);
+    }
+}
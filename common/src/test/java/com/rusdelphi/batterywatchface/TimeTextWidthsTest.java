@@ -0,0 +1,165 @@
+package com.rusdelphi.batterywatchface;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link TimeTextWidths} against a canvas with a proportional font: every digit has its own
+ * width, scaled by the paint's text size, and a second "typeface" with other widths.
+ */
+public class TimeTextWidthsTest {
+    private static final String[] DIGITS = new String[60];
+    private static final String[] TWO_DIGITS = new String[60];
+    private static final String[] COLON_TWO_DIGITS = new String[60];
+
+    static {
+        for (int i = 0; i < 60; i++) {
+            DIGITS[i] = String.valueOf(i);
+            TWO_DIGITS[i] = i < 10 ? "0" + i : DIGITS[i];
+            COLON_TWO_DIGITS[i] = ":" + TWO_DIGITS[i];
+        }
+    }
+
+    /**
+     * Widths of 0-9 and ':' per unit of text size, in two typefaces.
+     */
+    private static final float[][] CHAR_WIDTHS = {
+            {0.60f, 0.35f, 0.55f, 0.56f, 0.58f, 0.54f, 0.57f, 0.50f, 0.59f, 0.57f, 0.25f},
+            {0.52f, 0.52f, 0.52f, 0.52f, 0.52f, 0.52f, 0.52f, 0.52f, 0.52f, 0.52f, 0.52f},
+    };
+
+    private static class ProportionalCanvas extends RecordingFaceCanvas {
+        final float[] mTextSizes = new float[PAINT_COUNT];
+        int mTypeface;
+        float mLastTextX;
+
+        @Override
+        public void setTextSize(int paint, float size) {
+            super.setTextSize(paint, size);
+            mTextSizes[paint] = size;
+        }
+
+        @Override
+        public void drawText(char[] text, int index, int count, float x, float y, int paint) {
+            super.drawText(text, index, count, x, y, paint);
+            mLastTextX = x;
+        }
+
+        @Override
+        public float measureText(CharSequence text, int start, int end, int paint) {
+            super.measureText(text, start, end, paint);
+            float width = 0;
+            for (int i = start; i < end; i++) {
+                char c = text.charAt(i);
+                width += CHAR_WIDTHS[mTypeface][c == ':' ? 10 : c - '0'];
+            }
+            return width * mTextSizes[paint];
+        }
+
+        float measure(String text, int paint) {
+            return measureText(text, 0, text.length(), paint);
+        }
+    }
+
+    private ProportionalCanvas mCanvas;
+    private TimeTextWidths mWidths;
+
+    @Before
+    public void setUp() {
+        mCanvas = new ProportionalCanvas();
+        mCanvas.setTextSize(FaceCanvas.PAINT_ROUND_TIME, 40);
+        mWidths = new TimeTextWidths(FaceCanvas.PAINT_ROUND_TIME, DIGITS, COLON_TWO_DIGITS);
+    }
+
+    @Test
+    public void measuresOnceForAllTimes() {
+        mWidths.measure(mCanvas);
+        assertEquals(24 + 60, mCanvas.getMeasureCalls());
+        mCanvas.reset();
+        for (int frame = 0; frame < 24 * 60; frame++) {
+            mWidths.measure(mCanvas);
+            mWidths.time(frame / 60, frame % 60);
+        }
+        assertEquals(0, mCanvas.getMeasureCalls());
+    }
+
+    @Test
+    public void everyTimeMatchesDirectMeasure() {
+        mWidths.measure(mCanvas);
+        for (int hour = 0; hour < 24; hour++) {
+            for (int minute = 0; minute < 60; minute++) {
+                // H:MM before 10, HH:MM after.
+                String text = DIGITS[hour] + COLON_TWO_DIGITS[minute];
+                assertEquals(text, mCanvas.measure(text, FaceCanvas.PAINT_ROUND_TIME),
+                        mWidths.time(hour, minute), 0.001f);
+            }
+        }
+    }
+
+    @Test
+    public void everySquareHourMatchesDirectMeasure() {
+        mCanvas.setTextSize(FaceCanvas.PAINT_HOURS, 60);
+        TimeTextWidths widths = new TimeTextWidths(FaceCanvas.PAINT_HOURS, TWO_DIGITS, null);
+        widths.measure(mCanvas);
+        for (int hour = 0; hour < 24; hour++) {
+            assertEquals(TWO_DIGITS[hour], mCanvas.measure(TWO_DIGITS[hour], FaceCanvas.PAINT_HOURS),
+                    widths.hour(hour), 0.001f);
+        }
+    }
+
+    @Test
+    public void keepsWidthsUntilInvalidated() {
+        mWidths.measure(mCanvas);
+        float before = mWidths.time(10, 8);
+        mCanvas.setTextSize(FaceCanvas.PAINT_ROUND_TIME, 50);
+        mWidths.measure(mCanvas);
+        assertEquals(before, mWidths.time(10, 8), 0);
+
+        mWidths.invalidate();
+        assertFalse(mWidths.isValid());
+        mWidths.measure(mCanvas);
+        assertTrue(mWidths.isValid());
+        assertEquals(mCanvas.measure("10:08", FaceCanvas.PAINT_ROUND_TIME), mWidths.time(10, 8),
+                0.001f);
+    }
+
+    /**
+     * A new surface size sets new text sizes, and the face calls {@link FaceRenderer#invalidateLayers}
+     * when the paints' typeface or the locale changes. The time stays centered on the new widths.
+     */
+    @Test
+    public void rendererRemeasuresOnTextSizeTypefaceAndLocale() {
+        FaceRenderer renderer = new FaceRenderer(new RenderStats());
+        renderer.setRound(true);
+        renderer.setSurfaceSize(320, 320);
+        renderer.setTime(10, 8, 0);
+        renderer.draw(mCanvas, false, false);
+        assertCentered(160);
+
+        renderer.setSurfaceSize(400, 400);
+        renderer.draw(mCanvas, false, false);
+        assertCentered(200);
+
+        mCanvas.mTypeface = 1;
+        renderer.invalidateLayers();
+        mCanvas.reset();
+        renderer.draw(mCanvas, false, false);
+        assertTrue(mCanvas.getMeasureCalls() >= 24 + 60);
+        assertCentered(200);
+
+        mCanvas.mTypeface = 0;
+        renderer.invalidateLayers();
+        renderer.draw(mCanvas, false, false);
+        assertCentered(200);
+    }
+
+    private void assertCentered(float centerX) {
+        float width = mCanvas.measure("10:08", FaceCanvas.PAINT_ROUND_TIME);
+        // The renderer rounds to whole pixels.
+        assertEquals(centerX, mCanvas.mLastTextX + width / 2, 1);
+    }
+}
@@ -0,0 +1,224 @@
+package com.rusdelphi.batterywatchface;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.os.AsyncTask;
+import android.os.SystemClock;
+
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.wearable.PutDataRequest;
+import com.google.android.gms.wearable.Wearable;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pushes the phone's battery state to the watch when {@link BatteryPushPolicy} says so, so the
+ * watch doesn't have to ask.
+ * <p>
+ * While the process runs, every percent or charging change seen by {@link BatteryReader} is
+ * checked. A non-waking repeating alarm is the fallback for when it doesn't, together with boot,
+ * app updates and, before API 26 where manifest receivers still get them, power connect and
+ * disconnect.
+ */
+public class BatteryPushReceiver extends BroadcastReceiver {
+    static final String ACTION_CHECK = "com.rusdelphi.batterywatchface.action.CHECK_BATTERY";
+
+    /**
+     * Checks piggyback on wakeups of the phone, the alarm never wakes it up by itself.
+     */
+    private static final long CHECK_INTERVAL_MS = AlarmManager.INTERVAL_FIFTEEN_MINUTES;
+
+    /**
+     * Connecting, listing the nodes and the sends each wait at most this long, so a push stays
+     * within the ten seconds a receiver gets after {@link #goAsync}.
+     */
+    private static final long CALL_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(3);
+
+    private static final String PREFS = "battery_push";
+    private static final String KEY_PERCENT = "percent";
+    private static final String KEY_CHARGING = "charging";
+    private static final String KEY_DIRECTION = "direction";
+    private static final String KEY_TIME = "time";
+
+    /**
+     * Pushes and their sends run on the shared {@link AsyncTask#THREAD_POOL_EXECUTOR}.
+     */
+    private static final NodeFanout sFanout =
+            new NodeFanout(AsyncTask.THREAD_POOL_EXECUTOR, CALL_TIMEOUT_MS);
+
+    /**
+     * The one policy of the process, shared with {@link ListenerService}'s sync. It records a
+     * push as soon as it is dispatched, so checks in quick succession don't start another one;
+     * the preferences hold only states the watch confirmed and are reloaded if a push fails.
+     */
+    private static BatteryPushPolicy sPolicy;
+
+    private static boolean sWatching;
+    private static int sLastPercent = -1;
+    private static boolean sLastCharging;
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        Context appContext = context.getApplicationContext();
+        String action = intent.getAction();
+        if (Intent.ACTION_BOOT_COMPLETED.equals(action)
+                || Intent.ACTION_MY_PACKAGE_REPLACED.equals(action)) {
+            schedule(appContext);
+        }
+        watch(appContext);
+        check(appContext, this);
+    }
+
+    /**
+     * Checks on every percent or charging change for as long as the process lives. Call on the
+     * main thread.
+     */
+    static void watch(Context context) {
+        if (sWatching) {
+            return;
+        }
+        sWatching = true;
+        final Context appContext = context.getApplicationContext();
+        BatteryReader reader = BatteryReader.get(appContext);
+        // The caller checks the current state itself.
+        sLastPercent = reader.getPercent();
+        sLastCharging = reader.isCharging();
+        reader.addListener(new BatteryReader.Listener() {
+            @Override
+            public void onBatteryChanged(BatteryReader reader) {
+                int percent = reader.getPercent();
+                boolean charging = reader.isCharging();
+                if (percent != sLastPercent || charging != sLastCharging) {
+                    sLastPercent = percent;
+                    sLastCharging = charging;
+                    check(appContext, null);
+                }
+            }
+        });
+    }
+
+    /**
+     * Pushes the current state if the policy wants it. With a {@code receiver}, keeps its
+     * broadcast alive until the push is done.
+     */
+    private static void check(final Context context, final BroadcastReceiver receiver) {
+        long now = System.currentTimeMillis();
+        PhoneBatterySync sync = new PhoneBatterySync(new PhoneBatterySync.StateSource() {
+            @Override
+            public BatteryMessage read(BatteryMessage out) {
+                return ListenerService.getBatteryState(context, out);
+            }
+        }, new Outbox() {
+            @Override
+            public void offer(int slot, final byte[] data) {
+                final PendingResult result = receiver != null ? receiver.goAsync() : null;
+                AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            if (push(context, data)) {
+                                BatteryMessage state = new BatteryMessage();
+                                BatteryCodec.decode(data, state);
+                                recordSent(context, state.percent(), state.charging,
+                                        state.timestamp);
+                            } else {
+                                reloadPolicy(context);
+                            }
+                        } finally {
+                            if (result != null) {
+                                result.finish();
+                            }
+                        }
+                    }
+                });
+            }
+        }, getPolicy(context), 0);
+        sync.onBatteryChanged(now);
+    }
+
+    /**
+     * Starts the repeating check unless it is already scheduled.
+     */
+    static void schedule(Context context) {
+        Intent intent = new Intent(context, BatteryPushReceiver.class).setAction(ACTION_CHECK);
+        if (PendingIntent.getBroadcast(context, 0, intent, PendingIntent.FLAG_NO_CREATE) != null) {
+            return;
+        }
+        PendingIntent operation = PendingIntent.getBroadcast(context, 0, intent, 0);
+        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        alarmManager.setInexactRepeating(AlarmManager.ELAPSED_REALTIME,
+                SystemClock.elapsedRealtime() + CHECK_INTERVAL_MS, CHECK_INTERVAL_MS, operation);
+    }
+
+    /**
+     * The process's policy, restored from the last confirmed state on first use.
+     */
+    static synchronized BatteryPushPolicy getPolicy(Context context) {
+        if (sPolicy == null) {
+            sPolicy = new BatteryPushPolicy(BuildConfig.PUSH_DELTA_PERCENT,
+                    BuildConfig.PUSH_HYSTERESIS_PERCENT,
+                    TimeUnit.MINUTES.toMillis(BuildConfig.PUSH_MAX_STALE_MINUTES));
+            reloadPolicy(context);
+        }
+        return sPolicy;
+    }
+
+    /**
+     * Forgets pushes that weren't confirmed, the next check pushes again.
+     */
+    private static synchronized void reloadPolicy(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+        sPolicy.restore(prefs.getInt(KEY_PERCENT, -1), prefs.getBoolean(KEY_CHARGING, false),
+                prefs.getInt(KEY_DIRECTION, 0), prefs.getLong(KEY_TIME, 0));
+    }
+
+    /**
+     * Records a state the watch now has, whether pushed or sent in answer to a request.
+     */
+    static synchronized void recordSent(Context context, int percent, boolean charging,
+            long now) {
+        BatteryPushPolicy policy = getPolicy(context);
+        SharedPreferences.Editor editor =
+                context.getSharedPreferences(PREFS, Context.MODE_PRIVATE).edit();
+        synchronized (policy) {
+            policy.pushed(percent, charging, now);
+            editor.putInt(KEY_PERCENT, policy.getPushedPercent())
+                    .putBoolean(KEY_CHARGING, policy.isPushedCharging())
+                    .putInt(KEY_DIRECTION, policy.getDirection())
+                    .putLong(KEY_TIME, policy.getPushedTime());
+        }
+        editor.apply();
+    }
+
+    /**
+     * Sends the state over a short-lived connection, the service may not be running. Blocks for
+     * at most three times {@link #CALL_TIMEOUT_MS}.
+     */
+    private static boolean push(Context context, byte[] data) {
+        GoogleApiClient client = new GoogleApiClient.Builder(context)
+                .addApi(Wearable.API)
+                .build();
+        if (!client.blockingConnect(CALL_TIMEOUT_MS, TimeUnit.MILLISECONDS).isSuccess()) {
+            return false;
+        }
+        try {
+            if (BuildConfig.SYNC_VIA_DATA_ITEMS) {
+                PutDataRequest request = PutDataRequest.create(ListenerService.BATTERY_DATA_PATH)
+                        .setData(data)
+                        .setUrgent();
+                return Wearable.DataApi.putDataItem(client, request)
+                        .await(CALL_TIMEOUT_MS, TimeUnit.MILLISECONDS).getStatus().isSuccess();
+            }
+            // Lists the nodes once, no listener: the client lives for this push only.
+            WearableTransport transport = new WearableTransport(client,
+                    ListenerService.WEAR_MESSAGE_PATH, CALL_TIMEOUT_MS, null);
+            return sFanout.send(transport, data);
+        } finally {
+            client.disconnect();
+        }
+    }
+}
@@ -2,27 +2,84 @@ package com.rusdelphi.batterywatchface;
 
 import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
-import android.os.BatteryManager;
+import android.os.Bundle;
 
 import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.wearable.DataEvent;
+import com.google.android.gms.wearable.DataEventBuffer;
+import com.google.android.gms.wearable.DataItem;
 import com.google.android.gms.wearable.MessageEvent;
-import com.google.android.gms.wearable.Node;
 import com.google.android.gms.wearable.NodeApi;
+import com.google.android.gms.wearable.PutDataRequest;
 import com.google.android.gms.wearable.Wearable;
 import com.google.android.gms.wearable.WearableListenerService;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Created by User on 04.01.2015.
  */
-public class ListenerService extends WearableListenerService {
+public class ListenerService extends WearableListenerService
+        implements GoogleApiClient.ConnectionCallbacks {
 
     GoogleApiClient googleClient;
     public static final String ACTION_SM = "com.rusdelphi.batterywatchface.action.SM";
     public static final String ACTION_SM_PARAM = "com.rusdelphi.batterywatchface.action.SM.PARAM";
-    private static final String WEAR_MESSAGE_PATH = "batterywatchface_message_path";
+    static final String WEAR_MESSAGE_PATH = "batterywatchface_message_path";
+    /**
+     * Path of the data item holding a node's latest {@link BatteryCodec} state. Every node
+     * publishes under the same path, the URI host tells them apart.
+     */
+    public static final String BATTERY_DATA_PATH = "/battery";
     private static final String TAG = "ListenerService";
 
+    /**
+     * Reused for every incoming message and data item; listener callbacks run on a single thread.
+     */
+    private final BatteryMessage mMessage = new BatteryMessage();
+
+    /**
+     * Answers the watch's requests, from a state read at most {@link #REPLY_CACHE_MS} ago.
+     */
+    private static final long REPLY_CACHE_MS = TimeUnit.SECONDS.toMillis(5);
+    private PhoneBatterySync mSync;
+
+    /**
+     * In data item mode the phone republishes its state when the watch's changes, but only if
+     * the percentage or charging state differs from what it published last. Kept for the
+     * process, the service is destroyed and recreated between events; after a restart the first
+     * change publishes again.
+     */
+    private static final BatterySyncScheduler sPublishScheduler = new BatterySyncScheduler(0, 0);
+
+    /**
+     * Outgoing state and data items go through {@link #mConnection}, which keeps only the latest
+     * of each and retries failed connects and failed sends, each with its own backoff.
+     */
+    private static final long CONNECT_TIMEOUT_S = 30;
+    private static final long RETRY_INITIAL_MS = TimeUnit.SECONDS.toMillis(2);
+    private static final long RETRY_MAX_MS = TimeUnit.MINUTES.toMillis(5);
+    private SyncConnection mConnection;
+
+    /**
+     * Messages go to all nodes at once on {@link #mSendExecutor}, each node gets
+     * {@link #SEND_TIMEOUT_MS}.
+     */
+    private static final long SEND_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(10);
+    /**
+     * Paired nodes are few; a send that doesn't find room counts as failed and is retried.
+     */
+    private static final int SEND_THREADS = 2;
+    private static final int SEND_QUEUE_SIZE = 8;
+    private ExecutorService mSendExecutor;
+    private NodeFanout mFanout;
+
+    private WearableTransport mTransport;
+    private volatile String mLocalNodeId;
+
     public ListenerService() {
 
     }
@@ -32,85 +89,136 @@ public class ListenerService extends WearableListenerService {
         super.onCreate();
         googleClient = new GoogleApiClient.Builder(this)
                 .addApi(Wearable.API)
+                .addConnectionCallbacks(this)
                 .build();
+        mTransport = new WearableTransport(googleClient, WEAR_MESSAGE_PATH, SEND_TIMEOUT_MS,
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        mConnection.onReconnected();
+                    }
+                });
+        mSendExecutor = NodeFanout.newExecutor(SEND_THREADS, SEND_QUEUE_SIZE);
+        mFanout = new NodeFanout(mSendExecutor, SEND_TIMEOUT_MS);
+        mConnection = new SyncConnection(new SyncConnection.Endpoint() {
+            @Override
+            public boolean connect() {
+                return ListenerService.this.connect();
+            }
+
+            @Override
+            public boolean send(int slot, byte[] data) {
+                return slot == SyncConnection.SLOT_PUBLISH ? publish(data)
+                        : ListenerService.this.send(data);
+            }
+        }, new Backoff(RETRY_INITIAL_MS, RETRY_MAX_MS),
+                new Backoff(RETRY_INITIAL_MS, RETRY_MAX_MS));
+        mConnection.start();
+        mSync = new PhoneBatterySync(new PhoneBatterySync.StateSource() {
+            @Override
+            public BatteryMessage read(BatteryMessage out) {
+                return getBatteryState(ListenerService.this, out);
+            }
+        }, mConnection, BatteryPushReceiver.getPolicy(this), REPLY_CACHE_MS);
+        mSync.setListener(new PhoneBatterySync.Listener() {
+            @Override
+            public void onStateSent(int percent, boolean charging, long time) {
+                BatteryPushReceiver.recordSent(ListenerService.this, percent, charging, time);
+            }
+        });
         googleClient.connect();
+        BatteryPushReceiver.schedule(this);
+        BatteryPushReceiver.watch(this);
     }
 
     @Override
     public void onDestroy() {
+        mConnection.stop();
+        mSendExecutor.shutdownNow();
         if (null != googleClient && googleClient.isConnected()) {
+            mTransport.release();
             googleClient.disconnect();
         }
         super.onDestroy();
     }
 
+    @Override
+    public void onConnected(Bundle bundle) {
+        mTransport.onConnected();
+        mConnection.onReconnected();
+    }
+
+    @Override
+    public void onConnectionSuspended(int cause) {
+        mTransport.onConnectionSuspended();
+    }
+
 
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
         if (intent != null) {
             final String action = intent.getAction();
             if (ACTION_SM.equals(action)) {
-                final String param1 = intent.getStringExtra(ACTION_SM_PARAM);
-                if (googleClient.isConnected()) {
-                    new Thread(new Runnable() {
-                        @Override
-                        public void run() {
-                            NodeApi.GetConnectedNodesResult nodes = Wearable.NodeApi.getConnectedNodes(googleClient).await();
-                            for (Node node : nodes.getNodes()) {
-                                // MessageApi.SendMessageResult result =
-                                Wearable.MessageApi.sendMessage(googleClient, node.getId(), WEAR_MESSAGE_PATH, param1.getBytes()).await();
-//                                if (result.getStatus().isSuccess()) {
-//                                    // Log.d("main", "Message: {" + param1 + "} sent to: " + node.getDisplayName());
-//                                } else {
-//                                    // Log an error
-//                                    //  Log.d("main", "ERROR: failed to send Message");
-//                                }
-                            }
-                        }
-                    }).start();
-
+                byte[] param1 = intent.getByteArrayExtra(ACTION_SM_PARAM);
+                if (BatteryCodec.peekType(param1) == BatteryMessage.TYPE_STATE) {
+                    mConnection.offer(SyncConnection.SLOT_STATE, param1);
                 }
-                if (!googleClient.isConnected()) new Thread(new Runnable() {
-                    @Override
-                    public void run() {
-                        //  ConnectionResult connectionResult = googleClient.blockingConnect(30, TimeUnit.SECONDS);
-
-                        NodeApi.GetConnectedNodesResult nodes = Wearable.NodeApi.getConnectedNodes(googleClient).await();
-                        for (Node node : nodes.getNodes()) {
-                            //MessageApi.SendMessageResult result =
-                            Wearable.MessageApi.sendMessage(googleClient, node.getId(), WEAR_MESSAGE_PATH, param1.getBytes()).await();
-                            //  if (result.getStatus().isSuccess()) {
-                            // Log.d("main", "Message: {" + param1 + "} sent to: " + node.getDisplayName());
-                            //  } else {
-                            // Log an error
-                            //  Log.d("main", "ERROR: failed to send Message");
-                            //   }
-                        }
-
-                    }
-                }).start();
             }
         }
         return super.onStartCommand(intent, flags, startId);
+    }
+
+    /**
+     * Sends to every connected node. Returns false if there was none or a send failed or timed
+     * out, so the connection retries. Runs on the connection's worker.
+     */
+    private boolean send(byte[] data) {
+        return mFanout.send(mTransport, data);
+    }
 
+    /**
+     * Replaces this node's battery data item; the data layer syncs it to the peers.
+     */
+    private boolean publish(byte[] data) {
+        PutDataRequest request = PutDataRequest.create(BATTERY_DATA_PATH)
+                .setData(data)
+                .setUrgent();
+        return Wearable.DataApi.putDataItem(googleClient, request).await().getStatus().isSuccess();
     }
 
-    public static String getBatteryLevel(Context c) {
-        Intent batteryIntent = c.registerReceiver(null, new IntentFilter(
-                Intent.ACTION_BATTERY_CHANGED));
-        int level = batteryIntent.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
-        int scale = batteryIntent.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
-        // Error checking that probably isn't needed but I added just in case.
-        if (level == -1 || scale == -1) {
-            return String.valueOf(50.0f);
+    /**
+     * Blocks, call it off the main thread.
+     */
+    private boolean connect() {
+        return googleClient.isConnected()
+                || googleClient.blockingConnect(CONNECT_TIMEOUT_S, TimeUnit.SECONDS).isSuccess();
+    }
+
+    /**
+     * Whether {@code item} is another node's battery state. Blocks, call it off the main thread.
+     */
+    private boolean isPeerBatteryItem(DataItem item) {
+        if (!BATTERY_DATA_PATH.equals(item.getUri().getPath())) {
+            return false;
+        }
+        if (mLocalNodeId == null) {
+            if (!connect()) {
+                return false;
+            }
+            NodeApi.GetLocalNodeResult result = Wearable.NodeApi.getLocalNode(googleClient).await();
+            if (!result.getStatus().isSuccess()) {
+                return false;
+            }
+            mLocalNodeId = result.getNode().getId();
         }
-        String aaa = new java.text.DecimalFormat("00")
-                .format((((float) level / (float) scale) * 100.0f));
-        aaa = aaa + "%";
-        return aaa;
+        return !mLocalNodeId.equals(item.getUri().getHost());
     }
 
-    public static void sendMessage(Context context, String param1) {
+    public static BatteryMessage getBatteryState(Context c, BatteryMessage out) {
+        return BatteryReader.get(c).read(out);
+    }
+
+    public static void sendMessage(Context context, byte[] param1) {
         Intent intent = new Intent(context, ListenerService.class);
         intent.setAction(ListenerService.ACTION_SM);
         intent.putExtra(ListenerService.ACTION_SM_PARAM, param1);
@@ -118,24 +226,40 @@ public class ListenerService extends WearableListenerService {
     }
 
     @Override
-    public void onMessageReceived(MessageEvent messageEvent) {
-        /*if (Log.isLoggable(TAG, Log.DEBUG)) {
-            Log.d(TAG, "onMessageReceived: " + messageEvent);
-        }*/
-        if (messageEvent.getPath().equals(WEAR_MESSAGE_PATH)) {
-            final String message = new String(messageEvent.getData());
-            if (message.equals("get_level")) {
-                sendMessage(this, getBatteryLevel(this));
-                // return;
+    public void onDataChanged(DataEventBuffer dataEvents) {
+        for (DataEvent event : dataEvents) {
+            if (event.getType() == DataEvent.TYPE_CHANGED && isPeerBatteryItem(event.getDataItem())) {
+                BatteryMessage state = getBatteryState(this, mMessage);
+                long now = System.currentTimeMillis();
+                if (sPublishScheduler.offer(state.percent(), state.charging, now)
+                        != BatterySyncScheduler.NOTHING_PENDING && sPublishScheduler.poll(now)) {
+                    BatteryPushReceiver.recordSent(this, state.percent(), state.charging, now);
+                    mConnection.offer(SyncConnection.SLOT_PUBLISH, BatteryCodec.encode(state));
+                }
+                return;
             }
-            // Broadcast message to wearable activity for display
-            // MainActivity.mWatchLevel = message;
-//            Intent messageIntent = new Intent();
-//            messageIntent.setAction(Intent.ACTION_SEND);
-//            messageIntent.putExtra("message", message);
-//            LocalBroadcastManager.getInstance(this).sendBroadcast(messageIntent);
-            //   } else {
-            //  super.onMessageReceived(messageEvent);
+        }
+    }
+
+    /**
+     * {@code adb shell dumpsys activity service com.rusdelphi.batterywatchface/.ListenerService}
+     * prints the connection state and counters.
+     */
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        writer.println(mConnection);
+        writer.println(mFanout);
+        writer.println(mSync);
+        // get() would register the receiver just to print it.
+        BatteryReader reader = BatteryReader.peek();
+        writer.println(reader != null ? reader : "BatteryReader not started");
+    }
+
+    @Override
+    public void onMessageReceived(MessageEvent messageEvent) {
+        if (messageEvent.getPath().equals(WEAR_MESSAGE_PATH)
+                && BatteryCodec.decode(messageEvent.getData(), mMessage)) {
+            mSync.onMessage(mMessage, System.currentTimeMillis());
         }
     }
 }
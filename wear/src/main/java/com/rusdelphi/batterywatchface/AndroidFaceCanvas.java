@@ -0,0 +1,187 @@
+package com.rusdelphi.batterywatchface;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.RectF;
+
+/**
+ * {@link FaceCanvas} backed by {@link Canvas}. Layers are bitmaps reused as long as their size
+ * doesn't change; icons are scaled from their sources once per icon size. Paints and icons left
+ * null, as in the minimal canvas used until the rest are loaded, are skipped when sizing.
+ */
+class AndroidFaceCanvas implements FaceCanvas {
+    private final Paint[] mPaints;
+    private final Bitmap[] mSourceIcons;
+    private final Bitmap[] mIcons;
+    private final Bitmap[] mLayers;
+    private final AndroidFaceCanvas[] mLayerCanvases;
+    private Canvas mCanvas;
+    private final RectF mRect = new RectF();
+    private final Path mPath = new Path();
+
+    AndroidFaceCanvas(Paint[] paints, Bitmap[] sourceIcons) {
+        this(paints, sourceIcons, new Bitmap[ICON_COUNT], new Bitmap[LAYER_COUNT],
+                new AndroidFaceCanvas[LAYER_COUNT]);
+    }
+
+    private AndroidFaceCanvas(Paint[] paints, Bitmap[] sourceIcons, Bitmap[] icons,
+                              Bitmap[] layers, AndroidFaceCanvas[] layerCanvases) {
+        mPaints = paints;
+        mSourceIcons = sourceIcons;
+        mIcons = icons;
+        mLayers = layers;
+        mLayerCanvases = layerCanvases;
+        mPath.setFillType(Path.FillType.EVEN_ODD);
+    }
+
+    void setCanvas(Canvas canvas) {
+        mCanvas = canvas;
+    }
+
+    void recycle() {
+        for (int i = 0; i < LAYER_COUNT; i++) {
+            if (mLayers[i] != null) {
+                mLayers[i].recycle();
+                mLayers[i] = null;
+            }
+        }
+        for (int i = 0; i < ICON_COUNT; i++) {
+            if (mIcons[i] != null && mIcons[i] != mSourceIcons[i]) {
+                mIcons[i].recycle();
+            }
+            mIcons[i] = null;
+        }
+    }
+
+    @Override
+    public void setTextSize(int paint, float size) {
+        if (mPaints[paint] != null) {
+            mPaints[paint].setTextSize(size);
+        }
+    }
+
+    @Override
+    public void setStrokeWidth(int paint, float width) {
+        if (mPaints[paint] != null) {
+            mPaints[paint].setStrokeWidth(width);
+        }
+    }
+
+    @Override
+    public void setIconSize(int width, int height) {
+        for (int i = 0; i < ICON_COUNT; i++) {
+            Bitmap icon = mIcons[i];
+            if (mSourceIcons[i] == null) {
+                continue;
+            }
+            if (icon != null && icon.getWidth() == width && icon.getHeight() == height) {
+                continue;
+            }
+            if (icon != null && icon != mSourceIcons[i]) {
+                icon.recycle();
+            }
+            mIcons[i] = Bitmap.createScaledBitmap(mSourceIcons[i], Math.max(1, width),
+                    Math.max(1, height), true);
+        }
+    }
+
+    @Override
+    public FaceCanvas beginLayer(int layer, int width, int height) {
+        Bitmap bitmap = mLayers[layer];
+        AndroidFaceCanvas layerCanvas = mLayerCanvases[layer];
+        if (layerCanvas == null) {
+            layerCanvas = new AndroidFaceCanvas(mPaints, mSourceIcons, mIcons, mLayers,
+                    mLayerCanvases);
+            layerCanvas.setCanvas(new Canvas());
+            mLayerCanvases[layer] = layerCanvas;
+        }
+        if (bitmap == null || bitmap.getWidth() != width || bitmap.getHeight() != height) {
+            if (bitmap != null) {
+                bitmap.recycle();
+            }
+            bitmap = Bitmap.createBitmap(Math.max(1, width), Math.max(1, height),
+                    Bitmap.Config.ARGB_8888);
+            mLayers[layer] = bitmap;
+            layerCanvas.mCanvas.setBitmap(bitmap);
+        } else {
+            bitmap.eraseColor(Color.TRANSPARENT);
+        }
+        return layerCanvas;
+    }
+
+    @Override
+    public void drawLayer(int layer, float x, float y) {
+        mCanvas.drawBitmap(mLayers[layer], x, y, null);
+    }
+
+    @Override
+    public void drawColor(int argb) {
+        mCanvas.drawColor(argb);
+    }
+
+    @Override
+    public void drawRect(float left, float top, float right, float bottom, int paint) {
+        mCanvas.drawRect(left, top, right, bottom, mPaints[paint]);
+    }
+
+    @Override
+    public void drawLines(float[] pts, int offset, int count, int paint) {
+        mCanvas.drawLines(pts, offset, count, mPaints[paint]);
+    }
+
+    @Override
+    public void fillPolygon(float[] xy, int pointCount, int paint) {
+        mPath.rewind();
+        mPath.moveTo(xy[0], xy[1]);
+        for (int i = 1; i < pointCount; i++) {
+            mPath.lineTo(xy[i * 2], xy[i * 2 + 1]);
+        }
+        mPath.close();
+        mCanvas.drawPath(mPath, mPaints[paint]);
+    }
+
+    @Override
+    public void drawArc(float left, float top, float right, float bottom, float startAngle,
+                        float sweepAngle, int paint) {
+        mRect.set(left, top, right, bottom);
+        mCanvas.drawArc(mRect, startAngle, sweepAngle, false, mPaints[paint]);
+    }
+
+    @Override
+    public void drawIcon(int icon, float x, float y) {
+        mCanvas.drawBitmap(mIcons[icon], x, y, null);
+    }
+
+    @Override
+    public void drawText(CharSequence text, int start, int end, float x, float y, int paint) {
+        mCanvas.drawText(text, start, end, x, y, mPaints[paint]);
+    }
+
+    @Override
+    public void drawText(char[] text, int index, int count, float x, float y, int paint) {
+        mCanvas.drawText(text, index, count, x, y, mPaints[paint]);
+    }
+
+    @Override
+    public float measureText(CharSequence text, int start, int end, int paint) {
+        return mPaints[paint].measureText(text, start, end);
+    }
+
+    @Override
+    public float measureText(char[] text, int index, int count, int paint) {
+        return mPaints[paint].measureText(text, index, count);
+    }
+
+    @Override
+    public float getAscent(int paint) {
+        return mPaints[paint].ascent();
+    }
+
+    @Override
+    public float getDescent(int paint) {
+        return mPaints[paint].descent();
+    }
+}
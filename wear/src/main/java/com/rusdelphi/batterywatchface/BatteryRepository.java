@@ -0,0 +1,164 @@
+package com.rusdelphi.batterywatchface;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.SystemClock;
+import android.support.wearable.complications.ProviderUpdateRequester;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Battery state shared by everything in the process that shows it: the face and the phone
+ * battery complication read the same values, and requests to the phone go through one
+ * {@link RequestTracker}, so any number of them costs one sync.
+ * <p>
+ * The process's one {@link WatchBatterySync} lives here, used under this repository's lock: the
+ * face sends through it and {@link ListenerService} hands it every incoming phone state, whether
+ * or not the face is running. The primary phone's state is saved, so complications have a value after a restart.
+ */
+final class BatteryRepository {
+    /**
+     * A request for the phone's state not answered within this time is given up, the next sync
+     * asks again.
+     */
+    private static final long PHONE_REQUEST_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(30);
+
+    /**
+     * Complications are updated when the phone's percentage or charging state changes, and at
+     * least this often so that a stale value shows up as such.
+     */
+    private static final long COMPLICATION_MAX_STALE_MS = TimeUnit.MINUTES.toMillis(30);
+
+    private static final String PREFS = "phone_battery";
+    private static final String KEY_STATE = "state";
+    private static final String KEY_COMPLICATION_IDS = "complication_ids";
+
+    private static BatteryRepository sInstance;
+
+    private final Context mContext;
+    private final BatteryState mState = new BatteryState();
+    private final PeerBatteryStates mPeers = new PeerBatteryStates(WatchFace.PHONE_STALE_AFTER_MS);
+    private final RequestTracker mRequests = new RequestTracker(PHONE_REQUEST_TIMEOUT_MS);
+    private final BatteryPushPolicy mComplicationPolicy =
+            new BatteryPushPolicy(1, 0, COMPLICATION_MAX_STALE_MS);
+    private final BatteryMessage mRequest = new BatteryMessage();
+    private final WatchBatterySync mSync;
+    /**
+     * Ids of the complications showing the phone's level, as strings for the preferences. A set
+     * rather than a count, so a repeated or missed callback can't skew it.
+     */
+    private final Set<String> mActiveComplications = new HashSet<String>();
+
+    static synchronized BatteryRepository get(Context context) {
+        if (sInstance == null) {
+            sInstance = new BatteryRepository(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private BatteryRepository(Context context) {
+        mContext = context;
+        mRequest.type = BatteryMessage.TYPE_REQUEST;
+        mSync = new WatchBatterySync(new Outbox() {
+            @Override
+            public void offer(int slot, byte[] data) {
+                if (slot == SyncConnection.SLOT_PUBLISH) {
+                    ListenerService.publishState(mContext, data);
+                } else {
+                    WatchFace.sendMessage(mContext, data);
+                }
+            }
+        }, mState, mPeers, mRequests,
+                new BatterySyncScheduler(WatchFace.SYNC_COALESCE_WINDOW_MS,
+                        WatchFace.SYNC_MIN_INTERVAL_MS),
+                WatchFace.PHONE_REQUEST_AFTER_MS, BuildConfig.SYNC_VIA_DATA_ITEMS);
+        SharedPreferences prefs = context.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+        long phone = prefs.getLong(KEY_STATE, BatteryState.UNKNOWN);
+        if (BatteryState.isKnown(phone)) {
+            mState.set(BatteryState.DEVICE_PHONE, BatteryState.percent(phone),
+                    BatteryState.isCharging(phone), BatteryState.timestamp(phone));
+        }
+        mActiveComplications.addAll(
+                prefs.getStringSet(KEY_COMPLICATION_IDS, new HashSet<String>()));
+    }
+
+    BatteryState getState() {
+        return mState;
+    }
+
+    PeerBatteryStates getPeers() {
+        return mPeers;
+    }
+
+    RequestTracker getRequests() {
+        return mRequests;
+    }
+
+    /**
+     * Records the watch's own state, see {@link WatchBatterySync#onBatteryChanged}.
+     */
+    synchronized long onBatteryChanged(BatteryMessage state) {
+        return mSync.onBatteryChanged(state, SystemClock.elapsedRealtime());
+    }
+
+    /**
+     * Sends what is due, see {@link WatchBatterySync#sync}.
+     */
+    synchronized long sync() {
+        return mSync.sync(SystemClock.elapsedRealtime(), System.currentTimeMillis());
+    }
+
+    /**
+     * Handles a message from node {@code nodeId}. Returns true if it is the primary phone's
+     * state, which the face and the complications show.
+     */
+    synchronized boolean onMessage(String nodeId, BatteryMessage message) {
+        long now = System.currentTimeMillis();
+        if (!mSync.onMessage(nodeId, message, SystemClock.elapsedRealtime(), now)) {
+            return false;
+        }
+        int percent = message.percent();
+        mContext.getSharedPreferences(PREFS, Context.MODE_PRIVATE).edit()
+                .putLong(KEY_STATE, mState.get(BatteryState.DEVICE_PHONE))
+                .apply();
+        if (!mActiveComplications.isEmpty()
+                && mComplicationPolicy.shouldPush(percent, message.charging, now)) {
+            mComplicationPolicy.pushed(percent, message.charging, now);
+            new ProviderUpdateRequester(mContext,
+                    new ComponentName(mContext, PhoneBatteryProviderService.class))
+                    .requestUpdateAll();
+        }
+        return true;
+    }
+
+    /**
+     * Asks the phone for its state if the one here is unknown or older than
+     * {@link WatchFace#PHONE_REQUEST_AFTER_MS} and no request is in flight.
+     */
+    synchronized void requestIfStale() {
+        long phone = mState.get(BatteryState.DEVICE_PHONE);
+        if (BatteryState.isKnown(phone) && !BatteryState.isStale(phone,
+                System.currentTimeMillis(), WatchFace.PHONE_REQUEST_AFTER_MS)) {
+            return;
+        }
+        int requestId = mRequests.begin(SystemClock.elapsedRealtime());
+        if (requestId != RequestTracker.NONE) {
+            mRequest.requestId = requestId;
+            WatchFace.sendMessage(mContext, BatteryCodec.encode(mRequest));
+        }
+    }
+
+    synchronized void setComplicationActive(int complicationId, boolean active) {
+        String id = String.valueOf(complicationId);
+        if (!(active ? mActiveComplications.add(id) : mActiveComplications.remove(id))) {
+            return;
+        }
+        // The preferences keep the set they are given, so store a copy.
+        mContext.getSharedPreferences(PREFS, Context.MODE_PRIVATE).edit()
+                .putStringSet(KEY_COMPLICATION_IDS, new HashSet<String>(mActiveComplications))
+                .apply();
+    }
+}
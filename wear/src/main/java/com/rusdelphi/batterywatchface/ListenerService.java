@@ -2,117 +2,315 @@ package com.rusdelphi.batterywatchface;
 
 import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
-import android.os.BatteryManager;
+import android.net.Uri;
+import android.os.Bundle;
 import android.support.v4.content.LocalBroadcastManager;
 
 import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.wearable.DataEvent;
+import com.google.android.gms.wearable.DataEventBuffer;
+import com.google.android.gms.wearable.DataItem;
+import com.google.android.gms.wearable.DataItemBuffer;
 import com.google.android.gms.wearable.MessageEvent;
-import com.google.android.gms.wearable.Node;
 import com.google.android.gms.wearable.NodeApi;
+import com.google.android.gms.wearable.PutDataRequest;
 import com.google.android.gms.wearable.Wearable;
 import com.google.android.gms.wearable.WearableListenerService;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 /**
  * Created by User on 04.01.2015.
  */
-public class ListenerService extends WearableListenerService {
+public class ListenerService extends WearableListenerService
+        implements GoogleApiClient.ConnectionCallbacks {
 
     GoogleApiClient googleClient;
     public static final String ACTION_SM = "com.rusdelphi.batterywatchface.action.SM";
     public static final String ACTION_SM_PARAM = "com.rusdelphi.batterywatchface.action.SM.PARAM";
     public static final String WEAR_MESSAGE_PATH = "batterywatchface_message_path";
+    public static final String ACTION_READ_PEER = "com.rusdelphi.batterywatchface.action.READ_PEER";
+    public static final String ACTION_PUBLISH = "com.rusdelphi.batterywatchface.action.PUBLISH";
+    /**
+     * Path of the data item holding a node's latest {@link BatteryCodec} state. Every node
+     * publishes under the same path, the URI host tells them apart.
+     */
+    public static final String BATTERY_DATA_PATH = "/battery";
     private static final String TAG = "ListenerService";
 
+    /**
+     * Extras of the local {@link Intent#ACTION_SEND} broadcast carrying the primary phone's state,
+     * sent after it was stored in {@link BatteryRepository}.
+     */
+    public static final String EXTRA_LEVEL = "level";
+    public static final String EXTRA_SCALE = "scale";
+    public static final String EXTRA_CHARGING = "charging";
+    public static final String EXTRA_PLUGGED = "plugged";
+    public static final String EXTRA_TEMPERATURE = "temperature";
+    public static final String EXTRA_VOLTAGE = "voltage";
+    public static final String EXTRA_TIMESTAMP = "timestamp";
+
+    /**
+     * Reused for every incoming message and data item; listener callbacks run on a single thread.
+     */
+    private final BatteryMessage mMessage = new BatteryMessage();
+    /**
+     * Used on the send thread.
+     */
+    private final BatteryMessage mPeerMessage = new BatteryMessage();
+
+    /**
+     * Outgoing state, requests and data items go through {@link #mConnection}, which keeps only
+     * the latest of each and retries failed connects and failed sends, each with its own
+     * backoff. Reads of the local data layer run on {@link #mReadExecutor}.
+     */
+    private static final long CONNECT_TIMEOUT_S = 30;
+    private static final long RETRY_INITIAL_MS = TimeUnit.SECONDS.toMillis(2);
+    private static final long RETRY_MAX_MS = TimeUnit.MINUTES.toMillis(5);
+    private SyncConnection mConnection;
+
+    /**
+     * Messages go to all nodes at once on {@link #mSendExecutor}, each node gets
+     * {@link #SEND_TIMEOUT_MS}.
+     */
+    private static final long SEND_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(10);
+    /**
+     * Paired nodes are few; a send that doesn't find room counts as failed and is retried.
+     */
+    private static final int SEND_THREADS = 2;
+    private static final int SEND_QUEUE_SIZE = 8;
+    private ExecutorService mSendExecutor;
+    private NodeFanout mFanout;
+    private ExecutorService mReadExecutor;
+
+    private WearableTransport mTransport;
+    private volatile String mLocalNodeId;
+
 
     @Override
     public void onCreate() {
         super.onCreate();
         googleClient = new GoogleApiClient.Builder(this)
                 .addApi(Wearable.API)
+                .addConnectionCallbacks(this)
                 .build();
+        mTransport = new WearableTransport(googleClient, WEAR_MESSAGE_PATH, SEND_TIMEOUT_MS,
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        mConnection.onReconnected();
+                    }
+                });
+        mSendExecutor = NodeFanout.newExecutor(SEND_THREADS, SEND_QUEUE_SIZE);
+        mFanout = new NodeFanout(mSendExecutor, SEND_TIMEOUT_MS);
+        mConnection = new SyncConnection(new SyncConnection.Endpoint() {
+            @Override
+            public boolean connect() {
+                return ListenerService.this.connect();
+            }
+
+            @Override
+            public boolean send(int slot, byte[] data) {
+                return slot == SyncConnection.SLOT_PUBLISH ? publish(data)
+                        : ListenerService.this.send(data);
+            }
+        }, new Backoff(RETRY_INITIAL_MS, RETRY_MAX_MS),
+                new Backoff(RETRY_INITIAL_MS, RETRY_MAX_MS));
+        mConnection.start();
+        mReadExecutor = Executors.newSingleThreadExecutor();
         googleClient.connect();
     }
 
     @Override
     public void onDestroy() {
+        mConnection.stop();
+        mSendExecutor.shutdownNow();
+        mReadExecutor.shutdownNow();
         if (null != googleClient && googleClient.isConnected()) {
+            mTransport.release();
             googleClient.disconnect();
         }
         super.onDestroy();
     }
 
+    @Override
+    public void onConnected(Bundle bundle) {
+        mTransport.onConnected();
+        mConnection.onReconnected();
+    }
+
+    @Override
+    public void onConnectionSuspended(int cause) {
+        mTransport.onConnectionSuspended();
+    }
+
 
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
         if (intent != null) {
             final String action = intent.getAction();
             if (ACTION_SM.equals(action)) {
-                final String param1 = intent.getStringExtra(ACTION_SM_PARAM);
-                if (googleClient.isConnected()) {
-                    new Thread(new Runnable() {
-                        @Override
-                        public void run() {
-                            NodeApi.GetConnectedNodesResult nodes = Wearable.NodeApi.getConnectedNodes(googleClient).await();
-                            for (Node node : nodes.getNodes()) {
-                                Wearable.MessageApi.sendMessage(googleClient, node.getId(), WEAR_MESSAGE_PATH, param1.getBytes()).await();
-                            }
-                        }
-                    }).start();
-
+                byte[] param1 = intent.getByteArrayExtra(ACTION_SM_PARAM);
+                int type = BatteryCodec.peekType(param1);
+                if (type == BatteryMessage.TYPE_STATE) {
+                    mConnection.offer(SyncConnection.SLOT_STATE, param1);
+                } else if (type == BatteryMessage.TYPE_REQUEST) {
+                    mConnection.offer(SyncConnection.SLOT_REQUEST, param1);
+                }
+            } else if (ACTION_PUBLISH.equals(action)) {
+                byte[] param1 = intent.getByteArrayExtra(ACTION_SM_PARAM);
+                if (param1 != null) {
+                    mConnection.offer(SyncConnection.SLOT_PUBLISH, param1);
                 }
-                if (!googleClient.isConnected()) new Thread(new Runnable() {
+            } else if (ACTION_READ_PEER.equals(action)) {
+                mReadExecutor.execute(new Runnable() {
                     @Override
                     public void run() {
-                        googleClient.blockingConnect(30, TimeUnit.SECONDS);
-                        NodeApi.GetConnectedNodesResult nodes = Wearable.NodeApi.getConnectedNodes(googleClient).await();
-                        for (Node node : nodes.getNodes()) {
-                            Wearable.MessageApi.sendMessage(googleClient, node.getId(), WEAR_MESSAGE_PATH, param1.getBytes()).await();
-                        }
-
+                        readPeerState();
                     }
-                }).start();
+                });
             }
         }
         return super.onStartCommand(intent, flags, startId);
     }
 
-    public static String getBatteryLevel(Context c) {
-        Intent batteryIntent = c.registerReceiver(null, new IntentFilter(
-                Intent.ACTION_BATTERY_CHANGED));
-        int level = batteryIntent.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
-        int scale = batteryIntent.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
-        // Error checking that probably isn't needed but I added just in case.
-        if (level == -1 || scale == -1) {
-            return String.valueOf(50.0f);
+    /**
+     * Sends to every connected node. Returns false if there was none or a send failed or timed
+     * out, so the connection retries. Runs on the connection's worker.
+     */
+    private boolean send(byte[] data) {
+        return mFanout.send(mTransport, data);
+    }
+
+    /**
+     * Replaces this node's battery data item; the data layer syncs it to the peers.
+     */
+    private boolean publish(byte[] data) {
+        PutDataRequest request = PutDataRequest.create(BATTERY_DATA_PATH)
+                .setData(data)
+                .setUrgent();
+        return Wearable.DataApi.putDataItem(googleClient, request).await().getStatus().isSuccess();
+    }
+
+    /**
+     * Blocks, call it off the main thread.
+     */
+    private boolean connect() {
+        return googleClient.isConnected()
+                || googleClient.blockingConnect(CONNECT_TIMEOUT_S, TimeUnit.SECONDS).isSuccess();
+    }
+
+    /**
+     * Whether {@code item} is another node's battery state. Blocks, call it off the main thread.
+     */
+    private boolean isPeerBatteryItem(DataItem item) {
+        if (!BATTERY_DATA_PATH.equals(item.getUri().getPath())) {
+            return false;
+        }
+        if (mLocalNodeId == null) {
+            if (!connect()) {
+                return false;
+            }
+            NodeApi.GetLocalNodeResult result = Wearable.NodeApi.getLocalNode(googleClient).await();
+            if (!result.getStatus().isSuccess()) {
+                return false;
+            }
+            mLocalNodeId = result.getNode().getId();
+        }
+        return !mLocalNodeId.equals(item.getUri().getHost());
+    }
+
+    /**
+     * Broadcasts the phone state already in the local data layer, without touching the radio.
+     * Runs on the read thread.
+     */
+    private void readPeerState() {
+        if (!connect()) {
+            return;
         }
-        String aaa = new java.text.DecimalFormat("00")
-                .format((((float) level / (float) scale) * 100.0f));
-        aaa = aaa + "%";
-        return aaa;
+        Uri uri = new Uri.Builder()
+                .scheme(PutDataRequest.WEAR_URI_SCHEME)
+                .path(BATTERY_DATA_PATH)
+                .build();
+        DataItemBuffer items = Wearable.DataApi.getDataItems(googleClient, uri).await();
+        try {
+            for (DataItem item : items) {
+                if (isPeerBatteryItem(item)
+                        && BatteryCodec.decode(item.getData(), mPeerMessage)) {
+                    broadcastPeerState(item.getUri().getHost(), mPeerMessage);
+                }
+            }
+        } finally {
+            items.release();
+        }
+    }
+
+    public static void publishState(Context context, byte[] state) {
+        Intent intent = new Intent(context, ListenerService.class);
+        intent.setAction(ACTION_PUBLISH);
+        intent.putExtra(ACTION_SM_PARAM, state);
+        context.startService(intent);
+    }
+
+    public static void readPeerState(Context context) {
+        Intent intent = new Intent(context, ListenerService.class);
+        intent.setAction(ACTION_READ_PEER);
+        context.startService(intent);
     }
 
     @Override
     public void onMessageReceived(MessageEvent messageEvent) {
-       /* if (Log.isLoggable(TAG, Log.DEBUG)) {
-            Log.d(TAG, "onMessageReceived: " + messageEvent);
-        }*/
-        if (messageEvent.getPath().equals(WEAR_MESSAGE_PATH)) {
-            final String message = new String(messageEvent.getData());
-            if (message.equals("get_level")) {
-                WatchFace.sendMessage(this, getBatteryLevel(this));
-                return;
+        if (messageEvent.getPath().equals(WEAR_MESSAGE_PATH)
+                && BatteryCodec.decode(messageEvent.getData(), mMessage)) {
+            broadcastPeerState(messageEvent.getSourceNodeId(), mMessage);
+        }
+    }
+
+    @Override
+    public void onDataChanged(DataEventBuffer dataEvents) {
+        for (DataEvent event : dataEvents) {
+            DataItem item = event.getDataItem();
+            if (event.getType() == DataEvent.TYPE_CHANGED && isPeerBatteryItem(item)
+                    && BatteryCodec.decode(item.getData(), mMessage)) {
+                broadcastPeerState(item.getUri().getHost(), mMessage);
             }
-            // Broadcast message to wearable activity for display
-            //MainActivity.mSmartphoneLevel = message;
-            Intent messageIntent = new Intent();
-            messageIntent.setAction(Intent.ACTION_SEND);
-            messageIntent.putExtra("message", message);
-            LocalBroadcastManager.getInstance(this).sendBroadcast(messageIntent);
-            //} else {
-            //    super.onMessageReceived(messageEvent);
         }
     }
+
+    /**
+     * {@code adb shell dumpsys activity service com.rusdelphi.batterywatchface/.ListenerService}
+     * prints the connection state and counters.
+     */
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        writer.println(mConnection);
+        writer.println(mFanout);
+        // get() would register the receiver just to print it.
+        BatteryReader reader = BatteryReader.peek();
+        writer.println(reader != null ? reader : "BatteryReader not started");
+    }
+
+    /**
+     * Hands a phone's message to {@link BatteryRepository}'s sync and, if it is the primary
+     * phone's state, tells the face.
+     */
+    private void broadcastPeerState(String nodeId, BatteryMessage message) {
+        if (!BatteryRepository.get(this).onMessage(nodeId, message)) {
+            return;
+        }
+        Intent messageIntent = new Intent();
+        messageIntent.setAction(Intent.ACTION_SEND);
+        messageIntent.putExtra(EXTRA_LEVEL, message.level);
+        messageIntent.putExtra(EXTRA_SCALE, message.scale);
+        messageIntent.putExtra(EXTRA_CHARGING, message.charging);
+        messageIntent.putExtra(EXTRA_PLUGGED, message.plugged);
+        messageIntent.putExtra(EXTRA_TEMPERATURE, message.temperature);
+        messageIntent.putExtra(EXTRA_VOLTAGE, message.voltage);
+        messageIntent.putExtra(EXTRA_TIMESTAMP, message.timestamp);
+        LocalBroadcastManager.getInstance(this).sendBroadcast(messageIntent);
+    }
 }
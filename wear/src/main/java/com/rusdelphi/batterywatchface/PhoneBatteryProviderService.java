@@ -0,0 +1,57 @@
+package com.rusdelphi.batterywatchface;
+
+import android.annotation.TargetApi;
+import android.graphics.drawable.Icon;
+import android.os.Build;
+import android.support.wearable.complications.ComplicationData;
+import android.support.wearable.complications.ComplicationManager;
+import android.support.wearable.complications.ComplicationProviderService;
+import android.support.wearable.complications.ComplicationText;
+
+/**
+ * Complication provider for the phone's battery level, so other faces can show it without a sync
+ * of their own. Values come from {@link BatteryRepository}; updates are pushed from there when
+ * the level changes, the periodic update only asks the phone when the value is stale.
+ * <p>
+ * Complications need API 24; the manifest entry is disabled below that through
+ * {@code R.bool.complication_provider_enabled}.
+ */
+@TargetApi(Build.VERSION_CODES.N)
+public class PhoneBatteryProviderService extends ComplicationProviderService {
+
+    @Override
+    public void onComplicationActivated(int complicationId, int type, ComplicationManager manager) {
+        BatteryRepository.get(this).setComplicationActive(complicationId, true);
+    }
+
+    @Override
+    public void onComplicationDeactivated(int complicationId) {
+        BatteryRepository.get(this).setComplicationActive(complicationId, false);
+    }
+
+    @Override
+    public void onComplicationUpdate(int complicationId, int type, ComplicationManager manager) {
+        BatteryRepository repository = BatteryRepository.get(this);
+        repository.requestIfStale();
+        long phone = repository.getState().get(BatteryState.DEVICE_PHONE);
+        if (!BatteryState.isKnown(phone) || BatteryState.isStale(phone,
+                System.currentTimeMillis(), WatchFace.PHONE_STALE_AFTER_MS)) {
+            manager.updateComplicationData(complicationId,
+                    new ComplicationData.Builder(ComplicationData.TYPE_NO_DATA).build());
+            return;
+        }
+        int percent = BatteryState.percent(phone);
+        ComplicationData.Builder builder = new ComplicationData.Builder(type)
+                .setShortText(ComplicationText.plainText(BatteryFormat.percent(percent)))
+                .setIcon(Icon.createWithResource(this, R.drawable.smartphone_white));
+        if (type == ComplicationData.TYPE_RANGED_VALUE) {
+            builder.setValue(percent)
+                    .setMinValue(0)
+                    .setMaxValue(100);
+        } else if (type != ComplicationData.TYPE_SHORT_TEXT) {
+            manager.noUpdateRequired(complicationId);
+            return;
+        }
+        manager.updateComplicationData(complicationId, builder.build());
+    }
+}
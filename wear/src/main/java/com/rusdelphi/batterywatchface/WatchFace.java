@@ -24,12 +24,11 @@ import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
+import android.graphics.Color;
 import android.graphics.Paint;
-import android.graphics.Path;
 import android.graphics.Rect;
-import android.graphics.RectF;
 import android.graphics.Typeface;
-import android.os.BatteryManager;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
@@ -37,22 +36,53 @@ import android.support.v4.content.ContextCompat;
 import android.support.v4.content.LocalBroadcastManager;
 import android.support.wearable.watchface.CanvasWatchFaceService;
 import android.support.wearable.watchface.WatchFaceStyle;
-import android.text.format.Time;
+import android.util.DisplayMetrics;
 import android.view.Gravity;
 import android.view.SurfaceHolder;
 import android.view.WindowInsets;
 
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Locale;
 import java.util.TimeZone;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.TimeUnit;
 
 /**
- * Digital watch face with seconds. In ambient mode, the seconds aren't displayed. On devices with
- * low-bit ambient mode, the text is drawn without anti-aliasing in ambient mode.
+ * Digital watch face with seconds. In ambient mode only hours and minutes are displayed, without
+ * anti-aliasing and shifted by a few pixels every minute.
  */
 public class WatchFace extends CanvasWatchFaceService {
-    private static final Typeface NORMAL_TYPEFACE =
-            Typeface.create(Typeface.SANS_SERIF, Typeface.BOLD);
-    public static String mWatchLevel = "?", mSmartphoneLevel = "?";
+    /**
+     * Latest watch and phone battery state, read every frame. Shared through
+     * {@link BatteryRepository} with the complication provider.
+     */
+    BatteryState mBatteryState;
+
+    /**
+     * A phone level not updated for this long is greyed out.
+     */
+    static final long PHONE_STALE_AFTER_MS = TimeUnit.MINUTES.toMillis(60);
+
+    /**
+     * Battery states of every paired node; the primary one is the phone in {@link #mBatteryState}
+     * and the only one kept in the history.
+     */
+    PeerBatteryStates mPeers;
+
+    /**
+     * The phone pushes its state at least this often, the watch only asks for it when the last
+     * one is older.
+     */
+    static final long PHONE_REQUEST_AFTER_MS =
+            TimeUnit.MINUTES.toMillis(BuildConfig.PUSH_MAX_STALE_MINUTES);
+
+    /**
+     * Matches requests for the phone's state to the answers.
+     */
+    RequestTracker mRequests;
 
     /**
      * Update rate in milliseconds for interactive mode. We update once a second since seconds are
@@ -60,17 +90,121 @@ public class WatchFace extends CanvasWatchFaceService {
      */
     private static final long INTERACTIVE_UPDATE_RATE_MS = TimeUnit.SECONDS.toMillis(1);
 
-    public static void sendMessage(Context context, String param1) {
+    /**
+     * Battery changes arriving within this window are sent to the phone as one update.
+     */
+    static final long SYNC_COALESCE_WINDOW_MS = TimeUnit.SECONDS.toMillis(2);
+
+    /**
+     * Minimum time between two battery updates sent to the phone.
+     */
+    static final long SYNC_MIN_INTERVAL_MS = TimeUnit.SECONDS.toMillis(30);
+
+    public static void sendMessage(Context context, byte[] param1) {
         Intent intent = new Intent(context, ListenerService.class);
         intent.setAction(ListenerService.ACTION_SM);
         intent.putExtra(ListenerService.ACTION_SM_PARAM, param1);
         context.startService(intent);
     }
 
+    /**
+     * Samples kept per device, one is added each time the percentage or charging state changes.
+     */
+    private static final int HISTORY_CAPACITY = 4096;
+
+    /**
+     * Battery histories, shared by all engines of this service.
+     */
+    BatteryHistory mWatchHistory, mPhoneHistory;
+
+    /**
+     * Remaining time estimates, fed with the same samples as the histories.
+     */
+    final BatteryEstimator mWatchEstimator = new BatteryEstimator();
+    final BatteryEstimator mPhoneEstimator = new BatteryEstimator();
+
+    /**
+     * Samples replayed from the history into the estimators on start.
+     */
+    private static final int ESTIMATOR_WARMUP_SAMPLES = 32;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        BatteryRepository repository = BatteryRepository.get(this);
+        mBatteryState = repository.getState();
+        mPeers = repository.getPeers();
+        mRequests = repository.getRequests();
+        mWatchHistory = openHistory("watch_history");
+        mPhoneHistory = openHistory("phone_history");
+        restoreState(BatteryState.DEVICE_WATCH, mWatchHistory);
+        restoreState(BatteryState.DEVICE_PHONE, mPhoneHistory);
+        warmUp(mWatchEstimator, mWatchHistory);
+        warmUp(mPhoneEstimator, mPhoneHistory);
+    }
+
+    private void restoreState(int device, BatteryHistory history) {
+        int last = history.size() - 1;
+        if (last >= 0 && !BatteryState.isKnown(mBatteryState.get(device))) {
+            mBatteryState.set(device, history.getPercent(last), history.isCharging(last),
+                    history.getTimestamp(last));
+        }
+    }
+
+    private static void warmUp(BatteryEstimator estimator, BatteryHistory history) {
+        int size = history.size();
+        for (int i = Math.max(0, size - ESTIMATOR_WARMUP_SAMPLES); i < size; i++) {
+            estimator.add(history.getTimestamp(i), history.getPercent(i), history.isCharging(i));
+        }
+    }
+
+    @Override
+    public void onDestroy() {
+        closeHistory(mWatchHistory);
+        closeHistory(mPhoneHistory);
+        super.onDestroy();
+    }
 
-    public static int dpToPx(int dp) {
-        float density = Resources.getSystem().getDisplayMetrics().density;
-        return (int) (dp * density);
+    private BatteryHistory openHistory(String name) {
+        try {
+            return BatteryHistory.open(new File(getFilesDir(), name), HISTORY_CAPACITY);
+        } catch (IOException e) {
+            // Keep working without persistence.
+            return new BatteryHistory(HISTORY_CAPACITY);
+        }
+    }
+
+    private static void closeHistory(BatteryHistory history) {
+        try {
+            history.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Draw-time and startup statistics of all engines. Pull them with
+     * {@code adb shell dumpsys activity service com.rusdelphi.batterywatchface/.WatchFace}, add
+     * {@code overlay} to toggle the on-screen frame time or {@code reset} to start over.
+     */
+    final RenderStats mRenderStats = new RenderStats();
+    volatile boolean mDebugOverlay;
+
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(fd, writer, args);
+        if (args != null) {
+            for (String arg : args) {
+                if ("overlay".equals(arg)) {
+                    mDebugOverlay = !mDebugOverlay;
+                } else if ("reset".equals(arg)) {
+                    mRenderStats.reset();
+                }
+            }
+        }
+        writer.println("debug overlay: " + mDebugOverlay);
+        writer.println(mRequests);
+        writer.println(mPeers);
+        mRenderStats.dump(writer);
     }
 
     @Override
@@ -80,6 +214,8 @@ public class WatchFace extends CanvasWatchFaceService {
 
     private class Engine extends CanvasWatchFaceService.Engine {
         static final int MSG_UPDATE_TIME = 0;
+        static final int MSG_SYNC_BATTERY = 1;
+        static final int MSG_RESOURCES_LOADED = 2;
 
         /**
          * Handler to update the time periodically in interactive mode.
@@ -97,6 +233,12 @@ public class WatchFace extends CanvasWatchFaceService {
                             mUpdateTimeHandler.sendEmptyMessageDelayed(MSG_UPDATE_TIME, delayMs);
                         }
                         break;
+                    case MSG_SYNC_BATTERY:
+                        syncBattery();
+                        break;
+                    case MSG_RESOURCES_LOADED:
+                        onResourcesLoaded((AndroidFaceCanvas) message.obj);
+                        break;
                 }
             }
         };
@@ -104,47 +246,77 @@ public class WatchFace extends CanvasWatchFaceService {
         final BroadcastReceiver mTimeZoneReceiver = new BroadcastReceiver() {
             @Override
             public void onReceive(Context context, Intent intent) {
-                mTime.clear(intent.getStringExtra("time-zone"));
-                mTime.setToNow();
+                if (Intent.ACTION_LOCALE_CHANGED.equals(intent.getAction())) {
+                    if (mClock.setLocale(Locale.getDefault())) {
+                        mRenderer.invalidateLayers();
+                    }
+                } else {
+                    mClock.setTimeZone(TimeZone.getDefault());
+                }
+                invalidate();
             }
         };
 
         boolean mRegisteredTimeZoneReceiver = false;
 
-        Bitmap mWatch, mSmartphone;
+        /**
+         * Paints and icons drawn by {@link #mRenderer}, which sets text sizes, stroke widths and
+         * icon sizes from its layout. Until {@link #loadFaceCanvas} finishes in the background
+         * this holds only the ambient paint and the renderer draws the minimal frame.
+         */
+        AndroidFaceCanvas mFaceCanvas;
+        /**
+         * Runs {@link #loadFaceCanvas} on {@link AsyncTask#THREAD_POOL_EXECUTOR}; cancelled by
+         * {@link #onDestroy} if it hasn't started, and its result is dropped if it has.
+         */
+        FutureTask<Void> mResourceLoad;
+        boolean mResourcesLoaded;
+        boolean mDestroyed;
 
-        Paint mBackgroundPaint;
-        Paint mTextPaint, mMinutesPaint;
-        Paint mRoundTextPaint;
-        Paint mDataPaint;
-        Paint mRoundDataPaint;
-        Paint mSecondPaint;
-        Paint mTickPaint;
-        Paint mPaintOval;
+        /**
+         * {@link System#nanoTime} at {@link #onCreate}, the start of the startup times recorded
+         * in {@link #mRenderStats}.
+         */
+        long mCreatedAt;
+        boolean mFirstFrameDrawn;
+        boolean mFullFrameDrawn;
+        final FaceRenderer mRenderer = new FaceRenderer(mRenderStats);
         boolean mAmbient;
 
-        Time mTime;
-
+        final ClockModel mClock = new ClockModel(TimeZone.getDefault(), Locale.getDefault());
 
         /**
-         * Whether the display supports fewer bits for each color in ambient mode. When true, we
-         * disable anti-aliasing in ambient mode.
+         * Added to {@link BatteryReader} while visible, so the face shares the process's one
+         * battery receiver.
          */
-        boolean mLowBitAmbient;
-        private BroadcastReceiver mBatteryLevelReceiver;
+        final BatteryReader.Listener mBatteryListener = new BatteryReader.Listener() {
+            @Override
+            public void onBatteryChanged(BatteryReader reader) {
+                onBatteryState(reader);
+            }
+        };
+        final BatteryMessage mBatteryMessage = new BatteryMessage();
         MessageReceiver messageReceiver = new MessageReceiver();
-        private boolean mIsRound;
 
 
         public class MessageReceiver extends BroadcastReceiver {
             @Override
             public void onReceive(Context context, Intent intent) {
-                mSmartphoneLevel = intent.getStringExtra("message");
+                int level = intent.getIntExtra(ListenerService.EXTRA_LEVEL, -1);
+                int scale = intent.getIntExtra(ListenerService.EXTRA_SCALE, -1);
+                int percent = BatteryMessage.percent(level, scale);
+                long timestamp = intent.getLongExtra(ListenerService.EXTRA_TIMESTAMP,
+                        System.currentTimeMillis());
+                boolean charging = intent.getBooleanExtra(ListenerService.EXTRA_CHARGING, false);
+                if (mPhoneHistory.appendIfChanged(timestamp, percent, charging)) {
+                    mPhoneEstimator.add(timestamp, percent, charging);
+                }
             }
         }
 
         @Override
         public void onCreate(SurfaceHolder holder) {
+            mCreatedAt = System.nanoTime();
             super.onCreate(holder);
 
             setWatchFaceStyle(new WatchFaceStyle.Builder(WatchFace.this)
@@ -153,71 +325,145 @@ public class WatchFace extends CanvasWatchFaceService {
                     .setHotwordIndicatorGravity(Gravity.TOP | Gravity.LEFT)
                     .setBackgroundVisibility(WatchFaceStyle.BACKGROUND_VISIBILITY_PERSISTENT)
                     .build());
-            Resources resources = WatchFace.this.getResources();
-
-
-            mBackgroundPaint = new Paint();
-            mBackgroundPaint.setColor(ContextCompat.getColor(getApplicationContext(), (R.color.digital_background)));
-
-            //mTextPaint = new Paint();
-            mTextPaint = createTextPaint(ContextCompat.getColor(getApplicationContext(), (R.color.digital_text)));
-            mTextPaint.setTextSize(resources.getDimension(R.dimen.digital_text_size));
-            mTextPaint.setTypeface(Typeface.create(Typeface.MONOSPACE, Typeface.BOLD));
-
-
-            mMinutesPaint = createTextPaint(ContextCompat.getColor(getApplicationContext(), (R.color.digital_text)));
-            mMinutesPaint.setTextSize(resources.getDimension(R.dimen.minutes_text_size));
-
-            mRoundTextPaint = new Paint();
-            mRoundTextPaint.setColor(ContextCompat.getColor(getApplicationContext(), (R.color.digital_text)));
-            mRoundTextPaint.setTypeface(Typeface.create(Typeface.MONOSPACE, Typeface.NORMAL));
-            mRoundTextPaint.setAntiAlias(true);
-            mRoundTextPaint.setTextSize(resources.getDimension(R.dimen.digital_text_size_round));
-
-
-            // mDataPaint = new Paint();
-            mDataPaint = createTextPaint(ContextCompat.getColor(getApplicationContext(), (R.color.digital_text)));
-            mDataPaint.setTextSize(25);
-
-            mRoundDataPaint = new Paint();
-            mRoundDataPaint.setColor(ContextCompat.getColor(getApplicationContext(), (R.color.digital_text)));
-            mRoundDataPaint.setTypeface(Typeface.create(Typeface.SANS_SERIF, Typeface.NORMAL));
-            mRoundDataPaint.setAntiAlias(true);
-            mRoundDataPaint.setTextSize(20);
-
-
-            //mSecondPaint = new Paint();
-            mSecondPaint = createTextPaint(ContextCompat.getColor(getApplicationContext(), R.color.digital_text));
-            mSecondPaint.setTextSize(40);
-
-            mTickPaint = new Paint();
-            mTickPaint.setColor(ContextCompat.getColor(getApplicationContext(), (R.color.digital_yellow)));
-            mTickPaint.setStrokeWidth(2.f);
 
+            // Enough for the time, the rest comes from loadFaceCanvas.
+            final Paint ambientPaint = createTextPaint(ContextCompat.getColor(getApplicationContext(), (R.color.digital_text)));
+            ambientPaint.setAntiAlias(false);
+            Paint[] paints = new Paint[FaceCanvas.PAINT_COUNT];
+            paints[FaceCanvas.PAINT_AMBIENT] = ambientPaint;
+            mFaceCanvas = new AndroidFaceCanvas(paints, new Bitmap[FaceCanvas.ICON_COUNT]);
+            mRenderer.setStaleAfter(PHONE_STALE_AFTER_MS);
+            mRenderer.setMinimal(true);
+            mResourceLoad = new FutureTask<Void>(new Runnable() {
+                @Override
+                public void run() {
+                    mUpdateTimeHandler.obtainMessage(MSG_RESOURCES_LOADED,
+                            loadFaceCanvas(ambientPaint)).sendToTarget();
+                }
+            }, null);
+            AsyncTask.THREAD_POOL_EXECUTOR.execute(mResourceLoad);
+        }
 
-            mPaintOval = new Paint();
-            mPaintOval.setColor(ContextCompat.getColor(getApplicationContext(), (R.color.digital_yellow)));
-            mPaintOval.setStyle(Paint.Style.STROKE);
-            mPaintOval.setStrokeWidth(4.f);
-            mPaintOval.setAntiAlias(true);
+        /**
+         * Creates the paints other than the ambient one and decodes the icons. Runs on a
+         * background thread; the canvas is handed to the main thread by
+         * {@link #MSG_RESOURCES_LOADED}, which recycles it if the engine is gone by then.
+         */
+        private AndroidFaceCanvas loadFaceCanvas(Paint ambientPaint) {
+            Resources resources = WatchFace.this.getResources();
+            Paint[] paints = new Paint[FaceCanvas.PAINT_COUNT];
+            paints[FaceCanvas.PAINT_AMBIENT] = ambientPaint;
+
+            Paint backgroundPaint = new Paint();
+            backgroundPaint.setColor(ContextCompat.getColor(getApplicationContext(), (R.color.digital_background)));
+            paints[FaceCanvas.PAINT_BACKGROUND] = backgroundPaint;
+
+            Paint textPaint = createTextPaint(ContextCompat.getColor(getApplicationContext(), (R.color.digital_text)));
+            textPaint.setTypeface(Typeface.create(Typeface.MONOSPACE, Typeface.BOLD));
+            paints[FaceCanvas.PAINT_HOURS] = textPaint;
+
+            Paint minutesPaint = createTextPaint(ContextCompat.getColor(getApplicationContext(), (R.color.digital_text)));
+            paints[FaceCanvas.PAINT_MINUTES] = minutesPaint;
+
+            Paint roundTextPaint = new Paint();
+            roundTextPaint.setColor(ContextCompat.getColor(getApplicationContext(), (R.color.digital_text)));
+            roundTextPaint.setTypeface(Typeface.create(Typeface.MONOSPACE, Typeface.NORMAL));
+            roundTextPaint.setAntiAlias(true);
+            paints[FaceCanvas.PAINT_ROUND_TIME] = roundTextPaint;
+
+            Paint dataPaint = createTextPaint(ContextCompat.getColor(getApplicationContext(), (R.color.digital_text)));
+            paints[FaceCanvas.PAINT_DATA] = dataPaint;
+
+            Paint staleDataPaint = new Paint(dataPaint);
+            staleDataPaint.setColor(Color.GRAY);
+            paints[FaceCanvas.PAINT_DATA_STALE] = staleDataPaint;
+
+            Paint roundDataPaint = new Paint();
+            roundDataPaint.setColor(ContextCompat.getColor(getApplicationContext(), (R.color.digital_text)));
+            roundDataPaint.setTypeface(Typeface.create(Typeface.SANS_SERIF, Typeface.NORMAL));
+            roundDataPaint.setAntiAlias(true);
+            paints[FaceCanvas.PAINT_ROUND_DATA] = roundDataPaint;
+
+            Paint estimatePaint = createTextPaint(ContextCompat.getColor(getApplicationContext(), (R.color.digital_yellow)));
+            paints[FaceCanvas.PAINT_ESTIMATE] = estimatePaint;
+
+            Paint debugPaint = createTextPaint(Color.GREEN);
+            paints[FaceCanvas.PAINT_DEBUG] = debugPaint;
+
+            Paint secondPaint = createTextPaint(ContextCompat.getColor(getApplicationContext(), R.color.digital_text));
+            paints[FaceCanvas.PAINT_SECONDS] = secondPaint;
+
+            Paint tickPaint = new Paint();
+            tickPaint.setColor(ContextCompat.getColor(getApplicationContext(), (R.color.digital_yellow)));
+            paints[FaceCanvas.PAINT_TICK] = tickPaint;
+
+            Paint tickHighlightPaint = new Paint(tickPaint);
+            tickHighlightPaint.setColor(ContextCompat.getColor(getApplicationContext(), (R.color.white)));
+            paints[FaceCanvas.PAINT_TICK_HIGHLIGHT] = tickHighlightPaint;
+
+            Paint paintOval = new Paint();
+            paintOval.setColor(ContextCompat.getColor(getApplicationContext(), (R.color.digital_yellow)));
+            paintOval.setStyle(Paint.Style.STROKE);
+            paintOval.setAntiAlias(true);
+            paints[FaceCanvas.PAINT_SECONDS_ARC] = paintOval;
+
+            // Icons are decoded at the size the layout gives them on a full-screen surface, so
+            // applying the layout usually has nothing left to scale.
+            DisplayMetrics metrics = resources.getDisplayMetrics();
+            FaceLayout layout = new FaceLayout();
+            layout.update(metrics.widthPixels, metrics.heightPixels, false);
+            int iconWidth = Math.max(1, Math.round(layout.get(FaceLayout.ICON_WIDTH)));
+            int iconHeight = Math.max(1, Math.round(layout.get(FaceLayout.ICON_HEIGHT)));
+            Bitmap[] icons = new Bitmap[FaceCanvas.ICON_COUNT];
+            icons[FaceCanvas.ICON_WATCH] = decodeIcon(resources, R.drawable.watch_white,
+                    iconWidth, iconHeight);
+            icons[FaceCanvas.ICON_PHONE] = decodeIcon(resources, R.drawable.smartphone_white,
+                    iconWidth, iconHeight);
+            return new AndroidFaceCanvas(paints, icons);
+        }
 
-            int iW = 30;
-            int iH = 56;
-            //Load image from resource
-            mWatch = BitmapFactory.decodeResource(resources,
-                    R.drawable.watch_white);
-            //Scale to target size
-            mWatch = Bitmap.createScaledBitmap(mWatch, iW, iH, true);
-            mSmartphone = BitmapFactory.decodeResource(resources,
-                    R.drawable.smartphone_white);
-            mSmartphone = Bitmap.createScaledBitmap(mSmartphone, iW, iH, true);
+        /**
+         * Decodes with the largest power of two subsampling that keeps the bitmap at least
+         * {@code width} by {@code height}, then scales it to that size.
+         */
+        private Bitmap decodeIcon(Resources resources, int id, int width, int height) {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeResource(resources, id, options);
+            int sampleSize = 1;
+            while (options.outWidth / (sampleSize * 2) >= width
+                    && options.outHeight / (sampleSize * 2) >= height) {
+                sampleSize *= 2;
+            }
+            options.inJustDecodeBounds = false;
+            options.inSampleSize = sampleSize;
+            Bitmap decoded = BitmapFactory.decodeResource(resources, id, options);
+            Bitmap scaled = Bitmap.createScaledBitmap(decoded, width, height, true);
+            if (scaled != decoded) {
+                decoded.recycle();
+            }
+            return scaled;
+        }
 
-            mTime = new Time();
+        private void onResourcesLoaded(AndroidFaceCanvas canvas) {
+            if (mDestroyed) {
+                canvas.recycle();
+                return;
+            }
+            mFaceCanvas.recycle();
+            mFaceCanvas = canvas;
+            mResourcesLoaded = true;
+            mRenderer.setMinimal(false);
+            invalidate();
         }
 
         @Override
         public void onDestroy() {
+            mDestroyed = true;
+            mResourceLoad.cancel(false);
             mUpdateTimeHandler.removeMessages(MSG_UPDATE_TIME);
+            mUpdateTimeHandler.removeMessages(MSG_SYNC_BATTERY);
+            mFaceCanvas.recycle();
             super.onDestroy();
         }
 
@@ -236,9 +482,11 @@ public class WatchFace extends CanvasWatchFaceService {
             if (visible) {
                 registerReceiver();
 
-                // Update time zone in case it changed while we weren't visible.
-                mTime.clear(TimeZone.getDefault().getID());
-                mTime.setToNow();
+                // Update time zone and locale in case they changed while we weren't visible.
+                mClock.setTimeZone(TimeZone.getDefault());
+                if (mClock.setLocale(Locale.getDefault())) {
+                    mRenderer.invalidateLayers();
+                }
 
             } else {
                 unregisterReceiver();
@@ -250,29 +498,32 @@ public class WatchFace extends CanvasWatchFaceService {
         }
 
         private void registerReceiver() {
-            if (mRegisteredTimeZoneReceiver) {
-                mRegisteredTimeZoneReceiver = false;
+            if (!mRegisteredTimeZoneReceiver) {
+                mRegisteredTimeZoneReceiver = true;
                 IntentFilter filter = new IntentFilter(Intent.ACTION_TIMEZONE_CHANGED);
+                filter.addAction(Intent.ACTION_LOCALE_CHANGED);
                 WatchFace.this.registerReceiver(mTimeZoneReceiver, filter);
             }
-            IntentFilter batteryLevelFilter = new IntentFilter(Intent.ACTION_BATTERY_CHANGED);
-            mBatteryLevelReceiver = new BroadcastReceiver() {
-                @Override
-                public void onReceive(Context context, Intent i) {
-                    int level = i.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
-                    int scale = i.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
-                    mWatchLevel = new java.text.DecimalFormat("00")
-                            .format((((float) level / (float) scale) * 100.0f)) + "%";
-                    sendMessage(WatchFace.this, mWatchLevel);
-                    sendMessage(WatchFace.this, "get_level");
-                    //updateUI();
-                }
-            };
-            WatchFace.this.registerReceiver(mBatteryLevelReceiver, batteryLevelFilter);
+            // Like the sticky broadcast a new receiver got, the current state comes first.
+            BatteryReader reader = BatteryReader.get(WatchFace.this);
+            reader.addListener(mBatteryListener);
+            onBatteryState(reader);
             IntentFilter messageFilter = new IntentFilter(Intent.ACTION_SEND);
             LocalBroadcastManager.getInstance(WatchFace.this).registerReceiver(messageReceiver, messageFilter);
+            if (BuildConfig.SYNC_VIA_DATA_ITEMS) {
+                ListenerService.readPeerState(WatchFace.this);
+            }
+        }
 
-
+        private void onBatteryState(BatteryReader reader) {
+            reader.read(mBatteryMessage);
+            int percent = mBatteryMessage.percent();
+            if (mWatchHistory.appendIfChanged(mBatteryMessage.timestamp, percent,
+                    mBatteryMessage.charging)) {
+                mWatchEstimator.add(mBatteryMessage.timestamp, percent, mBatteryMessage.charging);
+            }
+            scheduleBatterySync(BatteryRepository.get(WatchFace.this)
+                    .onBatteryChanged(mBatteryMessage));
         }
 
         private void unregisterReceiver() {
@@ -281,35 +532,20 @@ public class WatchFace extends CanvasWatchFaceService {
                 WatchFace.this.unregisterReceiver(mTimeZoneReceiver);
             }
             LocalBroadcastManager.getInstance(WatchFace.this).unregisterReceiver(messageReceiver);
-            if (mBatteryLevelReceiver != null) {
-                WatchFace.this.unregisterReceiver(mBatteryLevelReceiver);
-                mBatteryLevelReceiver = null;
-                // Log.d("main", "onDestroy unregisterReceiver");
-            }
-
-
+            BatteryReader.get(WatchFace.this).removeListener(mBatteryListener);
         }
 
         @Override
         public void onApplyWindowInsets(WindowInsets insets) {
             super.onApplyWindowInsets(insets);
-
-            // Load resources that have alternate values for round watches.
-            //   Resources resources = WatchFace.this.getResources();
-            mIsRound = insets.isRound();
-
-//            mXOffset = resources.getDimension(isRound
-//                    ? R.dimen.digital_x_offset_round : R.dimen.digital_x_offset);
-//            float textSize = resources.getDimension(isRound
-//                    ? R.dimen.digital_text_size_round : R.dimen.digital_text_size);
-
-
+            mRenderer.setRound(insets.isRound());
         }
 
         @Override
         public void onPropertiesChanged(Bundle properties) {
             super.onPropertiesChanged(properties);
-            mLowBitAmbient = properties.getBoolean(PROPERTY_LOW_BIT_AMBIENT, false);
+            // The ambient frame is never anti-aliased, which already suits low-bit displays.
+            mRenderer.invalidateLayers();
         }
 
         @Override
@@ -323,9 +559,6 @@ public class WatchFace extends CanvasWatchFaceService {
             super.onAmbientModeChanged(inAmbientMode);
             if (mAmbient != inAmbientMode) {
                 mAmbient = inAmbientMode;
-                if (mLowBitAmbient) {
-                    mTextPaint.setAntiAlias(!inAmbientMode);
-                }
                 invalidate();
             }
 
@@ -337,95 +570,41 @@ public class WatchFace extends CanvasWatchFaceService {
 
         @Override
         public void onDraw(Canvas canvas, Rect bounds) {
-            mTime.setToNow();
-            canvas.drawRect(0, 0, bounds.width(), bounds.height(), mBackgroundPaint);
-            // ������ ���
-            if (mIsRound) {
-                drawRoundCanvas(canvas, bounds);
-                return;
+            mRenderer.setSurfaceSize(bounds.width(), bounds.height());
+            mRenderer.update(mClock, mBatteryState, mWatchEstimator, mPhoneEstimator,
+                    System.currentTimeMillis());
+            mRenderer.setDebugOverlay(mDebugOverlay);
+            mFaceCanvas.setCanvas(canvas);
+            mRenderer.draw(mFaceCanvas, isInAmbientMode(), shouldTimerBeRunning());
+            if (!mFullFrameDrawn) {
+                recordStartup();
             }
+        }
 
-
-            //������ �����
-            // String textTime = String.format("%d:%02d", mTime.hour, mTime.minute);
-
-
-            int xPos = (canvas.getWidth() / 2) - (int) mTextPaint.measureText(String.format("%02d", mTime.hour));
-            int yPos = dpToPx(77);
-
-            canvas.drawText(String.format("%02d", mTime.hour), xPos, yPos, mTextPaint);
-
-            xPos = (canvas.getWidth() / 2);
-
-            canvas.drawText(String.format("%02d", mTime.minute), xPos, yPos, mMinutesPaint);
-
-            //������ �����
-            String textDate = mTime.format("%d") + " " + mTime.format("%b");
-            canvas.drawText(textDate, dpToPx(29), dpToPx(106), mDataPaint);
-
-            //������ ���� ������
-            canvas.drawText(mTime.format("%a"), dpToPx(29), dpToPx(118), mDataPaint);
-
-
-            if (shouldTimerBeRunning()) {
-                //draw seconds with circle
-                canvas.drawText(String.valueOf(mTime.second), dpToPx(130), dpToPx(116), mSecondPaint);
-                final RectF oval = new RectF();
-                float center_x, center_y;
-                center_x = dpToPx(143);
-                center_y = dpToPx(108);
-                float radius = 31f;
-                oval.set(center_x - radius,
-                        center_y - radius,
-                        center_x + radius,
-                        center_y + radius);
-                canvas.drawArc(oval, 270, 6 * mTime.second, false, mPaintOval);
-
-                //draw charge levels
-                canvas.drawBitmap(mWatch, dpToPx(29), dpToPx(132), null);
-                canvas.drawText(mWatchLevel, dpToPx(50), dpToPx(151), mDataPaint);
-
-                canvas.drawBitmap(mSmartphone, dpToPx(116), dpToPx(132), null);
-                canvas.drawText(mSmartphoneLevel, dpToPx(136), dpToPx(151), mDataPaint);
+        private void recordStartup() {
+            long elapsed = System.nanoTime() - mCreatedAt;
+            if (!mFirstFrameDrawn) {
+                mFirstFrameDrawn = true;
+                mRenderStats.record(RenderStats.SECTION_STARTUP_FIRST, elapsed);
             }
-            // ������  ����� �� �����
-            int w = bounds.width();
-            int h = bounds.height();
-            float centerX = w / 2f;
-            float step = w / 16;
-            for (int tickIndex = 1; tickIndex < 60; tickIndex++) {
-                if (mTime.second == tickIndex)
-                    mTickPaint.setColor(ContextCompat.getColor(getApplicationContext(), (R.color.white)));
-                else
-                    mTickPaint.setColor(ContextCompat.getColor(getApplicationContext(), (R.color.digital_yellow)));
-
-                if (tickIndex > 0 && tickIndex < 8)
-                    canvas.drawLine(centerX + tickIndex * step, 0, centerX + tickIndex * step,
-                            10, mTickPaint);
-                if (tickIndex > 7 && tickIndex < 23)
-                    canvas.drawLine(w, step + (tickIndex - 8) * step, w - 10, step + (tickIndex - 8) * step,
-                            mTickPaint);
-                if (tickIndex > 22 && tickIndex < 38)
-                    canvas.drawLine(w - (step + (tickIndex - 23) * step), h, w - (step + (tickIndex - 23) * step), h - 10,
-                            mTickPaint);
-                if (tickIndex > 37 && tickIndex < 53)
-                    canvas.drawLine(0, step + (tickIndex - 38) * step, 10, step + (tickIndex - 38) * step,
-                            mTickPaint);
-                if (tickIndex > 52 && tickIndex < 61)
-                    canvas.drawLine(step + (tickIndex - 53) * step, 0, step + (tickIndex - 53) * step, 10,
-                            mTickPaint);
+            if (mResourcesLoaded) {
+                mFullFrameDrawn = true;
+                mRenderStats.record(RenderStats.SECTION_STARTUP_FULL, elapsed);
             }
-            // draw a triangle������ �����������
-            Path path = new Path();
-            path.setFillType(Path.FillType.EVEN_ODD);
-            path.moveTo(centerX - 10, 0);
-            path.lineTo(centerX + 10, 0);
-            path.lineTo(centerX, (float) (Math.sqrt(3) * 10));
-            path.close();
-
-            canvas.drawPath(path, mTickPaint);
+        }
 
+        private void scheduleBatterySync(long delayMs) {
+            mUpdateTimeHandler.removeMessages(MSG_SYNC_BATTERY);
+            if (delayMs != BatterySyncScheduler.NOTHING_PENDING) {
+                mUpdateTimeHandler.sendEmptyMessageDelayed(MSG_SYNC_BATTERY, delayMs);
+            }
+        }
 
+        /**
+         * Sends the latest battery state and asks for the phone's, if the scheduler says it's time.
+         */
+        private void syncBattery() {
+            scheduleBatterySync(BatteryRepository.get(WatchFace.this).sync());
         }
 
         private void updateTimer() {
@@ -442,75 +621,5 @@ public class WatchFace extends CanvasWatchFaceService {
         private boolean shouldTimerBeRunning() {
             return isVisible() && !isInAmbientMode();
         }
-
-
-        private void drawRoundCanvas(Canvas canvas, Rect bounds) {
-            //������ �����
-            String textTime = String.format("%d:%02d", mTime.hour, mTime.minute);
-
-            int xPos = (canvas.getWidth() / 2) - ((int) mRoundTextPaint.measureText(textTime) / 2);
-            int yPos = dpToPx(75);
-
-            canvas.drawText(textTime, xPos, yPos, mRoundTextPaint);
-
-            //������ �����
-            String textDate = mTime.format("%d") + " " + mTime.format("%b");
-            canvas.drawText(textDate, dpToPx(35), dpToPx(96), mRoundDataPaint);
-
-            //������ ���� ������
-            canvas.drawText(mTime.format("%a"), dpToPx(35), dpToPx(109), mRoundDataPaint);
-
-
-            if (shouldTimerBeRunning()) {
-                //draw seconds with circle
-                canvas.drawText(String.valueOf(mTime.second), dpToPx(130), dpToPx(109), mSecondPaint);
-                final RectF oval = new RectF();
-                float center_x, center_y;
-                center_x = dpToPx(144);
-                center_y = dpToPx(99);
-                float radius = 30f;
-                oval.set(center_x - radius,
-                        center_y - radius,
-                        center_x + radius,
-                        center_y + radius);
-                canvas.drawArc(oval, 270, 6 * mTime.second, false, mPaintOval);
-
-                //draw charge levels
-                canvas.drawBitmap(mWatch, dpToPx(50), dpToPx(132), null);
-                canvas.drawText(mWatchLevel, dpToPx(71), dpToPx(156), mDataPaint);
-
-                canvas.drawBitmap(mSmartphone, dpToPx(116), dpToPx(132), null);
-                canvas.drawText(mSmartphoneLevel, dpToPx(137), dpToPx(156), mDataPaint);
-            }
-            // ����
-            // Рисуем  циферблат
-            int width = bounds.width();
-            int height = bounds.height();
-            float centerX = width / 2f;
-            float centerY = height / 2f;
-            float innerTickRadius = centerX - 20;
-            float outerTickRadius = centerX;
-            for (int tickIndex = 1; tickIndex < 60; tickIndex++) {
-                float tickRot = (float) (tickIndex * Math.PI * 2 / 60);
-                float innerX = (float) Math.sin(tickRot) * innerTickRadius;
-                float innerY = (float) -Math.cos(tickRot) * innerTickRadius;
-                float outerX = (float) Math.sin(tickRot) * outerTickRadius;
-                float outerY = (float) -Math.cos(tickRot) * outerTickRadius;
-                canvas.drawLine(centerX + innerX, centerY + innerY,
-                        centerX + outerX, centerY + outerY, mTickPaint);
-
-            }
-            // draw a triangle������ �����������
-            Path path = new Path();
-            path.setFillType(Path.FillType.EVEN_ODD);
-            path.moveTo(centerX - 10, 0);
-            path.lineTo(centerX + 10, 0);
-            path.lineTo(centerX, (float) (Math.sqrt(3) * 10));
-            path.close();
-
-            canvas.drawPath(path, mTickPaint);
-
-
-        }
     }
 }
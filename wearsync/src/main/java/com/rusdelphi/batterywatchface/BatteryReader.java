@@ -0,0 +1,177 @@
+package com.rusdelphi.batterywatchface;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.SystemClock;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This device's battery state, kept in memory by one {@link Intent#ACTION_BATTERY_CHANGED}
+ * receiver registered for the life of the process, instead of fetching the sticky intent over
+ * binder on every read.
+ * <p>
+ * Once a broadcast arrived, reads are served from memory: the system sends a new one on every
+ * change, so the receiver's values are current however old they are. Until then reads poll the
+ * sticky intent, and if there is none, the level and from API 23 the charging state through
+ * {@link BatteryManager} properties, at most every {@link #POLL_TTL_MS}; the other fields stay
+ * unknown until a whole intent arrives.
+ */
+public final class BatteryReader {
+    public interface Listener {
+        /**
+         * A battery broadcast arrived, on the main thread. Most only change the temperature or
+         * voltage.
+         */
+        void onBatteryChanged(BatteryReader reader);
+    }
+
+    private static final long POLL_TTL_MS = TimeUnit.SECONDS.toMillis(5);
+
+    private static BatteryReader sInstance;
+
+    private final Context mContext;
+    private final BatteryManager mBatteryManager;
+
+    private int mLevel = -1;
+    private int mScale = -1;
+    private boolean mCharging;
+    private int mPlugged = BatteryMessage.PLUGGED_NONE;
+    private int mTemperature;
+    private int mVoltage;
+    /**
+     * Whether all fields come from a battery intent.
+     */
+    private boolean mReceived;
+    /**
+     * When the level was last polled from the properties, while nothing was received.
+     */
+    private long mPolledAt = -1;
+
+    private final CopyOnWriteArrayList<Listener> mListeners =
+            new CopyOnWriteArrayList<Listener>();
+
+    private long mReadCount;
+    private long mRefreshCount;
+
+    public static synchronized BatteryReader get(Context context) {
+        if (sInstance == null) {
+            sInstance = new BatteryReader(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * The reader if something already started it, without registering a receiver.
+     */
+    public static synchronized BatteryReader peek() {
+        return sInstance;
+    }
+
+    private BatteryReader(Context context) {
+        mContext = context;
+        mBatteryManager = Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP
+                ? (BatteryManager) context.getSystemService(Context.BATTERY_SERVICE) : null;
+        update(context.registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                update(intent);
+                for (Listener listener : mListeners) {
+                    listener.onBatteryChanged(BatteryReader.this);
+                }
+            }
+        }, new IntentFilter(Intent.ACTION_BATTERY_CHANGED)));
+    }
+
+    /**
+     * Does nothing if {@code listener} is already added.
+     */
+    public void addListener(Listener listener) {
+        mListeners.addIfAbsent(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    private synchronized void update(Intent intent) {
+        if (intent == null) {
+            return;
+        }
+        mLevel = intent.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+        mScale = intent.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+        int status = intent.getIntExtra(BatteryManager.EXTRA_STATUS, -1);
+        mCharging = status == BatteryManager.BATTERY_STATUS_CHARGING
+                || status == BatteryManager.BATTERY_STATUS_FULL;
+        mPlugged = intent.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0);
+        mTemperature = intent.getIntExtra(BatteryManager.EXTRA_TEMPERATURE, 0);
+        mVoltage = intent.getIntExtra(BatteryManager.EXTRA_VOLTAGE, 0);
+        mReceived = true;
+    }
+
+    private void refreshIfNeeded() {
+        mReadCount++;
+        if (mReceived) {
+            return;
+        }
+        long now = SystemClock.elapsedRealtime();
+        if (mPolledAt >= 0 && now - mPolledAt < POLL_TTL_MS) {
+            return;
+        }
+        mRefreshCount++;
+        update(mContext.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED)));
+        if (mReceived || mBatteryManager == null) {
+            return;
+        }
+        // Integer.MIN_VALUE, or 0 on some devices, if the property isn't supported.
+        int capacity = mBatteryManager.getIntProperty(BatteryManager.BATTERY_PROPERTY_CAPACITY);
+        if (capacity > 0) {
+            mLevel = capacity;
+            mScale = 100;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                mCharging = mBatteryManager.isCharging();
+            }
+        }
+        mPolledAt = now;
+    }
+
+    /**
+     * Level in percent from 0 to 100, or -1 if unknown.
+     */
+    public synchronized int getPercent() {
+        refreshIfNeeded();
+        return BatteryMessage.percent(mLevel, mScale);
+    }
+
+    public synchronized boolean isCharging() {
+        refreshIfNeeded();
+        return mCharging;
+    }
+
+    /**
+     * Fills {@code out} with the current state, stamped with the current time.
+     */
+    public synchronized BatteryMessage read(BatteryMessage out) {
+        refreshIfNeeded();
+        out.clear();
+        out.level = mLevel;
+        out.scale = mScale;
+        out.charging = mCharging;
+        out.plugged = mPlugged;
+        out.temperature = mTemperature;
+        out.voltage = mVoltage;
+        out.timestamp = System.currentTimeMillis();
+        return out;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "BatteryReader{reads=" + mReadCount + ", refreshes=" + mRefreshCount
+                + ", received=" + mReceived + "}";
+    }
+}
@@ -0,0 +1,94 @@
+package com.rusdelphi.batterywatchface;
+
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.wearable.Node;
+import com.google.android.gms.wearable.NodeApi;
+import com.google.android.gms.wearable.Wearable;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link BatteryTransport} over the wearable message API. Connected nodes are queried once per
+ * connection and then kept current by the node listener.
+ */
+public class WearableTransport implements BatteryTransport, NodeApi.NodeListener {
+    private final GoogleApiClient mClient;
+    private final String mPath;
+    private final long mSendTimeoutMs;
+    private final Runnable mOnPeerConnected;
+    private final Set<String> mNodeIds = new CopyOnWriteArraySet<String>();
+    private volatile boolean mNodesKnown;
+
+    /**
+     * @param sendTimeoutMs how long a send or the node query waits before it fails
+     * @param onPeerConnected run when a node connects, on a binder thread; may be null if
+     *                        {@link #onConnected} is never called
+     */
+    public WearableTransport(GoogleApiClient client, String path, long sendTimeoutMs,
+            Runnable onPeerConnected) {
+        mClient = client;
+        mPath = path;
+        mSendTimeoutMs = sendTimeoutMs;
+        mOnPeerConnected = onPeerConnected;
+    }
+
+    /**
+     * Call from {@link GoogleApiClient.ConnectionCallbacks#onConnected}.
+     */
+    public void onConnected() {
+        Wearable.NodeApi.addListener(mClient, this);
+        mNodesKnown = false;
+    }
+
+    public void onConnectionSuspended() {
+        mNodesKnown = false;
+    }
+
+    /**
+     * Call before disconnecting the client.
+     */
+    public void release() {
+        if (mClient.isConnected()) {
+            Wearable.NodeApi.removeListener(mClient, this);
+        }
+    }
+
+    @Override
+    public Collection<String> getConnectedNodes() {
+        if (!mNodesKnown) {
+            NodeApi.GetConnectedNodesResult nodes = Wearable.NodeApi.getConnectedNodes(mClient)
+                    .await(mSendTimeoutMs, TimeUnit.MILLISECONDS);
+            if (!nodes.getStatus().isSuccess()) {
+                return null;
+            }
+            mNodeIds.clear();
+            for (Node node : nodes.getNodes()) {
+                mNodeIds.add(node.getId());
+            }
+            mNodesKnown = true;
+        }
+        return mNodeIds;
+    }
+
+    @Override
+    public boolean send(String nodeId, byte[] data) {
+        return Wearable.MessageApi.sendMessage(mClient, nodeId, mPath, data)
+                .await(mSendTimeoutMs, TimeUnit.MILLISECONDS).getStatus().isSuccess();
+    }
+
+    @Override
+    public void onPeerConnected(Node node) {
+        mNodeIds.add(node.getId());
+        if (mOnPeerConnected != null) {
+            mOnPeerConnected.run();
+        }
+    }
+
+    @Override
+    public void onPeerDisconnected(Node node) {
+        mNodeIds.remove(node.getId());
+    }
+}